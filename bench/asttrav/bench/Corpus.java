@@ -0,0 +1,141 @@
+package asttrav.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
+
+// ---
+// The Java sources the benchmarks run on. A "generated" corpus is written
+// to a temporary directory from a fixed seed so every run sees the same
+// files; a "real" corpus is every .java file below the directory named by
+// the asttrav.bench.corpus system property, or below this plug-in's src
+// folder when it is not set. Everything here works without a running
+// workbench: the parser only needs the jdt.core jar and its dependencies.
+// ---
+final class Corpus {
+	static final String DIR_PROPERTY = "asttrav.bench.corpus"; //$NON-NLS-1$
+
+	final String root;
+	final String[] paths;
+	final char[][] sources;
+
+	private Corpus(Path root, List<Path> files) throws IOException {
+		this.root = root.toAbsolutePath().toString();
+		this.paths = new String[files.size()];
+		this.sources = new char[files.size()][];
+		for (int i = 0; i < files.size(); i++) {
+			this.paths[i] = files.get(i).toAbsolutePath().toString();
+			this.sources[i] = new String(Files.readAllBytes(files.get(i)),
+					StandardCharsets.UTF_8).toCharArray();
+		}
+	}
+
+	int size() {
+		return this.paths.length;
+	}
+
+	// ---
+	// Returns the corpus of the given kind, "generated" or "real"
+	// ---
+	static Corpus load(String kind, int generatedFiles, int methodsPerFile)
+			throws IOException {
+		if ("generated".equals(kind))
+			return generate(generatedFiles, methodsPerFile);
+		Path root = new File(System.getProperty(DIR_PROPERTY, "src")).toPath();
+		try (Stream<Path> walk = Files.walk(root)) {
+			List<Path> files = walk
+					.filter(p -> p.toString().endsWith(".java"))
+					.sorted().collect(Collectors.toList());
+			if (files.isEmpty())
+				throw new IOException("No .java files below " + root);
+			return new Corpus(root, files);
+		}
+	}// end load(String kind, int generatedFiles, int methodsPerFile)
+
+	// ---
+	// Returns a parser set up like the plug-in does it. The environment
+	// is always set since createASTs on file paths needs one: the corpus
+	// root is the source path and the running VM's boot classpath is
+	// enough to resolve java.lang.
+	// ---
+	ASTParser newParser(boolean bindings) {
+		ASTParser parser = ASTParser.newParser(AST.JLS8);
+		Map<String, String> options = JavaCore.getOptions();
+		JavaCore.setComplianceOptions(JavaCore.VERSION_1_8, options);
+		parser.setCompilerOptions(options);
+		parser.setKind(ASTParser.K_COMPILATION_UNIT);
+		parser.setEnvironment(new String[0], new String[] { root }, null, true);
+		parser.setResolveBindings(bindings);
+		parser.setBindingsRecovery(false);
+		parser.setStatementsRecovery(false);
+		return parser;
+	}// end newParser(boolean bindings)
+
+	// writes the generated sources to a fresh temporary directory
+	private static Corpus generate(int files, int methods)
+			throws IOException {
+		Path dir = Files.createTempDirectory("asttrav-bench");
+		Path pkg = Files.createDirectories(dir.resolve("gen"));
+		List<Path> result = new ArrayList<>(files);
+		for (int f = 0; f < files; f++) {
+			Path file = pkg.resolve("Gen" + f + ".java");
+			Files.write(file, source(f, methods, files)
+					.getBytes(StandardCharsets.UTF_8));
+			result.add(file);
+		}
+		Collections.sort(result);
+		return new Corpus(dir, result);
+	}// end generate(int files, int methods)
+
+	// ---
+	// One synthetic class: fields, constructors, plain and super calls,
+	// loops, conditionals, string concatenation and calls into the next
+	// class, so both the pruned and the visited node types show up
+	// ---
+	private static String source(int f, int methods, int files) {
+		StringBuilder sb = new StringBuilder(methods * 400);
+		String next = "Gen" + ((f + 1) % files);
+		sb.append("package gen;\n\nimport java.util.ArrayList;\nimport java.util.List;\n\n");
+		sb.append("/** Generated class ").append(f).append(". */\n");
+		sb.append("public class Gen").append(f).append(" extends Object {\n");
+		sb.append("\tprivate final List<String> names = new ArrayList<>();\n");
+		sb.append("\tprivate int counter;\n\n");
+		sb.append("\tpublic Gen").append(f).append("() {\n\t\tsuper();\n\t}\n\n");
+		sb.append("\tpublic Gen").append(f).append("(int start) {\n\t\tthis();\n");
+		sb.append("\t\tthis.counter = start;\n\t}\n\n");
+		for (int m = 0; m < methods; m++) {
+			sb.append("\t/**\n\t * Method ").append(m).append(".\n\t */\n");
+			sb.append("\tpublic int method").append(m).append("(int a, String s) {\n");
+			sb.append("\t\tint total = a;\n");
+			sb.append("\t\tfor (int i = 0; i < a; i++) {\n");
+			sb.append("\t\t\tif (i % 3 == 0) {\n");
+			sb.append("\t\t\t\ttotal += s.length() + Integer.parseInt(\"").append(m).append("\");\n");
+			sb.append("\t\t\t} else {\n");
+			sb.append("\t\t\t\tnames.add(s + i + \"-\" + total);\n");
+			sb.append("\t\t\t}\n\t\t}\n");
+			sb.append("\t\tfor (String n : names) {\n");
+			sb.append("\t\t\ttotal += n.hashCode();\n\t\t}\n");
+			sb.append("\t\twhile (total > 1000) {\n\t\t\ttotal = total / 2 - counter;\n\t\t}\n");
+			sb.append("\t\ttry {\n\t\t\ttotal += new ").append(next)
+					.append("(total).hashCode() + super.hashCode();\n");
+			sb.append("\t\t} catch (RuntimeException ex) {\n\t\t\ttotal = -1;\n\t\t}\n");
+			sb.append("\t\treturn total > 0 ? total : toString().length();\n");
+			sb.append("\t}\n\n");
+		}
+		sb.append("}\n");
+		return sb.toString();
+	}// end source(int f, int methods, int files)
+
+}// end Corpus
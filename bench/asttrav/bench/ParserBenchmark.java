@@ -0,0 +1,85 @@
+package asttrav.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.FileASTRequestor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// ---
+// Parse cost of the whole corpus, with and without bindings, once as one
+// createAST call per file (what InfoGatherer.getNumberOfMethodCalls does)
+// and once as a single createASTs batch (what ProjectAnalyzer does).
+// Every score is the time for the whole corpus; run with -prof gc and
+// divide gc.alloc.rate.norm by the corpus size for the allocation per
+// file. newParser measures the parser setup on its own.
+// ---
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xss4m" })
+public class ParserBenchmark {
+
+	@Param({ "generated", "real" })
+	public String corpus;
+
+	@Param({ "false", "true" })
+	public boolean bindings;
+
+	@Param({ "200" })
+	public int generatedFiles;
+
+	@Param({ "20" })
+	public int methodsPerFile;
+
+	private Corpus files;
+
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		files = Corpus.load(corpus, generatedFiles, methodsPerFile);
+	}
+
+	@Benchmark
+	public ASTParser newParser() {
+		return files.newParser(bindings);
+	}
+
+	@Benchmark
+	public void createAST(Blackhole bh) {
+		for (int i = 0; i < files.size(); i++) {
+			ASTParser parser = files.newParser(bindings);
+			parser.setUnitName(files.paths[i]);
+			parser.setSource(files.sources[i]);
+			bh.consume(parser.createAST(null));
+		}
+	}
+
+	@Benchmark
+	public void createASTs(final Blackhole bh) {
+		ASTParser parser = files.newParser(bindings);
+		parser.createASTs(files.paths, null, new String[0],
+				new FileASTRequestor() {
+					public void acceptAST(String sourceFilePath,
+							CompilationUnit ast) {
+						bh.consume(ast);
+					}
+				}, null);
+	}
+
+}// end ParserBenchmark
@@ -0,0 +1,95 @@
+package asttrav.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import asttrav.popup.actions.CountingVisitor;
+import asttrav.popup.actions.MyVisitor;
+
+// ---
+// Traversal throughput over ASTs that are parsed once up front, so only
+// the visit is measured. The "nodes" counter is reported per second next
+// to the per-corpus score, which gives nodes per second directly; calls
+// is there to check that both visitors agree.
+// ---
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xss4m" })
+public class VisitorBenchmark {
+
+	@Param({ "generated", "real" })
+	public String corpus;
+
+	@Param({ "200" })
+	public int generatedFiles;
+
+	@Param({ "20" })
+	public int methodsPerFile;
+
+	private CompilationUnit[] asts;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counts {
+		public long nodes;
+		public long calls;
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			nodes = 0;
+			calls = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void parse() throws IOException {
+		Corpus files = Corpus.load(corpus, generatedFiles, methodsPerFile);
+		asts = new CompilationUnit[files.size()];
+		for (int i = 0; i < files.size(); i++) {
+			ASTParser parser = files.newParser(false);
+			parser.setSource(files.sources[i]);
+			asts[i] = (CompilationUnit) parser.createAST(null);
+		}
+	}
+
+	@Benchmark
+	public void myVisitor(Counts counts) {
+		for (int i = 0; i < asts.length; i++) {
+			MyVisitor visitor = new MyVisitor();
+			asts[i].accept(visitor);
+			counts.nodes += visitor.getNumberOfNodes();
+			counts.calls += visitor.getNumberOfMethodCalls();
+		}
+	}
+
+	@Benchmark
+	public void countingVisitor(Counts counts) {
+		CountingVisitor visitor = new CountingVisitor();
+		for (int i = 0; i < asts.length; i++) {
+			visitor.reset();
+			asts[i].accept(visitor);
+			counts.nodes += visitor.getNumberOfNodes();
+			counts.calls += visitor.getNumberOfMethodCalls();
+		}
+	}
+
+}// end VisitorBenchmark
@@ -1,9 +1,23 @@
 package asttrav;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.eclipse.jface.resource.ImageDescriptor;
+import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
 
+import asttrav.popup.actions.AnalysisSession;
+import asttrav.popup.actions.IncrementalMetrics;
+import asttrav.popup.actions.MetricsCache;
+import asttrav.stats.AnalysisStats;
+
 /**
  * The activator class controls the plug-in life cycle
  */
@@ -14,6 +28,15 @@ public class Activator extends AbstractUIPlugin {
 
 	// The shared instance
 	private static Activator plugin;
+
+	// The per compilation unit metrics, loaded on first use
+	private MetricsCache metricsCache;
+
+	// The workspace totals kept up to date from Java element deltas
+	private IncrementalMetrics incrementalMetrics;
+
+	// The parsers and project settings shared by interactive queries
+	private AnalysisSession analysisSession;
 	
 	/**
 	 * The constructor
@@ -28,6 +51,14 @@ public class Activator extends AbstractUIPlugin {
 	public void start(BundleContext context) throws Exception {
 		super.start(context);
 		plugin = this;
+		registerStats();
+		analysisSession = new AnalysisSession();
+		analysisSession.start();
+		// headless runs (see asttrav.headless) have no workspace to follow
+		if (PlatformUI.isWorkbenchRunning()) {
+			incrementalMetrics = new IncrementalMetrics(getMetricsCache());
+			incrementalMetrics.start();
+		}
 	}
 
 	/*
@@ -35,10 +66,65 @@ public class Activator extends AbstractUIPlugin {
 	 * @see org.eclipse.ui.plugin.AbstractUIPlugin#stop(org.osgi.framework.BundleContext)
 	 */
 	public void stop(BundleContext context) throws Exception {
+		if (incrementalMetrics != null) {
+			incrementalMetrics.stop();
+			incrementalMetrics = null;
+		}
+		if (analysisSession != null) {
+			analysisSession.stop();
+			analysisSession = null;
+		}
+		synchronized (this) {
+			if (metricsCache != null) {
+				try {
+					metricsCache.save();
+				} catch (IOException ex) {
+					ex.printStackTrace();
+				}
+				metricsCache = null;
+			}
+		}
+		unregisterStats();
 		plugin = null;
 		super.stop(context);
 	}
 
+	// ---
+	// Makes the analysis stats visible to JMX clients such as JConsole
+	// ---
+	private void registerStats() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(AnalysisStats.OBJECT_NAME);
+			if (!server.isRegistered(name))
+				server.registerMBean(AnalysisStats.get(), name);
+		} catch (JMException ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	// ---
+	// Writes the stats out if asked to and removes them from JMX
+	// ---
+	private void unregisterStats() {
+		String dump = System.getProperty(AnalysisStats.DUMP_PROPERTY);
+		if (dump != null) {
+			try {
+				AnalysisStats.get().dump(Paths.get(dump));
+			} catch (IOException ex) {
+				ex.printStackTrace();
+			}
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(AnalysisStats.OBJECT_NAME);
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+		} catch (JMException ex) {
+			ex.printStackTrace();
+		}
+	}
+
 	/**
 	 * Returns the shared instance
 	 *
@@ -48,6 +134,44 @@ public class Activator extends AbstractUIPlugin {
 		return plugin;
 	}
 
+	/**
+	 * Returns the cache of per compilation unit metrics. It is read from
+	 * the state location of the plug-in the first time it is asked for and
+	 * written back when the plug-in stops.
+	 *
+	 * @return the metrics cache
+	 */
+	public synchronized MetricsCache getMetricsCache() {
+		if (metricsCache == null) {
+			metricsCache = new MetricsCache(getStateLocation()
+					.append("unit-metrics.idx").toFile()); //$NON-NLS-1$
+			metricsCache.load();
+		}
+		return metricsCache;
+	}
+
+	/**
+	 * Returns the workspace metrics that are kept up to date as Java
+	 * elements change. Check {@link IncrementalMetrics#isReady()} before
+	 * trusting the totals.
+	 *
+	 * @return the incremental metrics, or null if the plug-in is stopped
+	 */
+	public IncrementalMetrics getIncrementalMetrics() {
+		return incrementalMetrics;
+	}
+
+	/**
+	 * Returns the analysis session that keeps parsers and per project
+	 * settings across queries. It forgets a project when its classpath
+	 * or its compiler preferences change.
+	 *
+	 * @return the analysis session, or null if the plug-in is stopped
+	 */
+	public AnalysisSession getAnalysisSession() {
+		return analysisSession;
+	}
+
 	/**
 	 * Returns an image descriptor for the image file at the given
 	 * plug-in relative path
@@ -0,0 +1,106 @@
+package asttrav.callgraph;
+
+import java.util.Arrays;
+
+// ---
+// An immutable call graph over interned method IDs in compressed sparse
+// row form. The callees of method m are
+// outTargets[outOffsets[m] .. outOffsets[m + 1]) and its callers are
+// inSources[inOffsets[m] .. inOffsets[m + 1]), so fan-out and fan-in are
+// two array reads and listing either is a copy of one slice. Every call
+// site is an edge, so a method called twice from the same caller shows
+// up twice; use the distinct variants to fold those.
+// ---
+public class CallGraph {
+	private final MethodKeyTable methods;
+	private final int[] outOffsets;
+	private final int[] outTargets;
+	private final int[] inOffsets;
+	private final int[] inSources;
+
+	// ---
+	// Builds the graph from parallel arrays of caller and callee IDs; only
+	// the first numEdges entries are used
+	// ---
+	public CallGraph(MethodKeyTable methods, int[] callers, int[] callees,
+			int numEdges) {
+		int n = methods.size();
+		this.methods = methods;
+		this.outOffsets = new int[n + 1];
+		this.inOffsets = new int[n + 1];
+		this.outTargets = new int[numEdges];
+		this.inSources = new int[numEdges];
+		// counting sort of the edges by caller and by callee
+		for (int e = 0; e < numEdges; e++) {
+			this.outOffsets[callers[e] + 1]++;
+			this.inOffsets[callees[e] + 1]++;
+		}
+		for (int m = 0; m < n; m++) {
+			this.outOffsets[m + 1] += this.outOffsets[m];
+			this.inOffsets[m + 1] += this.inOffsets[m];
+		}
+		int[] outNext = Arrays.copyOf(this.outOffsets, n);
+		int[] inNext = Arrays.copyOf(this.inOffsets, n);
+		for (int e = 0; e < numEdges; e++) {
+			this.outTargets[outNext[callers[e]]++] = callees[e];
+			this.inSources[inNext[callees[e]]++] = callers[e];
+		}
+	}
+
+	public MethodKeyTable getMethods() {
+		return this.methods;
+	}
+
+	public int getNumberOfMethods() {
+		return this.methods.size();
+	}
+
+	public int getNumberOfCallSites() {
+		return this.outTargets.length;
+	}
+
+	// the number of call sites in the method
+	public int getFanOut(int method) {
+		return this.outOffsets[method + 1] - this.outOffsets[method];
+	}
+
+	// the number of call sites that call the method
+	public int getFanIn(int method) {
+		return this.inOffsets[method + 1] - this.inOffsets[method];
+	}
+
+	// the callee of every call site in the method
+	public int[] getCallees(int method) {
+		return Arrays.copyOfRange(this.outTargets, this.outOffsets[method],
+				this.outOffsets[method + 1]);
+	}
+
+	// the caller of every call site that calls the method
+	public int[] getCallers(int method) {
+		return Arrays.copyOfRange(this.inSources, this.inOffsets[method],
+				this.inOffsets[method + 1]);
+	}
+
+	// the methods the method calls, each once, in ascending ID order
+	public int[] getDistinctCallees(int method) {
+		return distinct(getCallees(method));
+	}
+
+	// the methods that call the method, each once, in ascending ID order
+	public int[] getDistinctCallers(int method) {
+		return distinct(getCallers(method));
+	}
+
+	private static int[] distinct(int[] ids) {
+		if (ids.length < 2)
+			return ids;
+		Arrays.sort(ids);
+		int n = 1;
+		for (int i = 1; i < ids.length; i++) {
+			if (ids[i] != ids[n - 1])
+				ids[n++] = ids[i];
+		}
+		return n == ids.length ? ids : Arrays.copyOf(ids, n);
+	}
+
+}// end CallGraph
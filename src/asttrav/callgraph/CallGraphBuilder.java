@@ -0,0 +1,206 @@
+package asttrav.callgraph;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTRequestor;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.ConstructorInvocation;
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.MethodInvocation;
+import org.eclipse.jdt.core.dom.SuperConstructorInvocation;
+import org.eclipse.jdt.core.dom.SuperMethodInvocation;
+
+import asttrav.popup.actions.AnalysisOptions;
+import asttrav.popup.actions.DeepStack;
+import asttrav.popup.actions.IterativeWalker;
+import asttrav.popup.actions.Metric;
+import asttrav.popup.actions.ProjectAnalyzer;
+import asttrav.stats.AnalysisStats;
+import asttrav.stats.Stage;
+
+// ---
+// Builds a CallGraph of the source in a set of projects. Every project is
+// parsed in one ASTParser.createASTs batch with bindings resolved, and the
+// four invocation node types MyVisitor counts as calls (MethodInvocation,
+// SuperMethodInvocation, ConstructorInvocation and
+// SuperConstructorInvocation) become edges from the innermost enclosing
+// MethodDeclaration to the method the call binds to. Both ends are
+// identified by the key of the generic method declaration's binding, so
+// calls to List<String>.add and List<Integer>.add meet in one node.
+// Calls outside of any method body (field initialisers, initializer
+// blocks) and calls whose binding cannot be resolved are left out.
+//
+// The trees are walked with an IterativeWalker and the batch is parsed on
+// a thread with a large stack, see DeepStack, so a deeply nested file
+// does not overflow the stack.
+// ---
+public class CallGraphBuilder {
+	private final MethodKeyTable methods = new MethodKeyTable();
+	private int[] callers = new int[4096];
+	private int[] callees = new int[4096];
+	private int numEdges;
+	private int numUnresolved;
+
+	public CallGraphBuilder() {
+		super();
+	}
+
+	// ---
+	// Adds the call sites of every source compilation unit of the projects.
+	// The monitor may be null; when it gets canceled an
+	// OperationCanceledException is thrown.
+	// ---
+	public CallGraphBuilder addProjects(List<IJavaProject> projects,
+			IProgressMonitor monitor) throws JavaModelException {
+		SubMonitor progress = SubMonitor.convert(monitor, "Building call graph",
+				projects.size());
+		for (IJavaProject project : projects) {
+			ICompilationUnit[] units = ProjectAnalyzer.getSourceUnits(project);
+			SubMonitor projectProgress = progress.newChild(1);
+			if (units.length == 0)
+				continue;
+			final ASTParser parser = AnalysisOptions.forMetrics(
+					Metric.CALL_GRAPH).newParser();
+			parser.setProject(project);
+			final EdgeCollector collector = new EdgeCollector();
+			final IterativeWalker walker = new IterativeWalker();
+			DeepStack.run(() -> parser.createASTs(units, new String[0],
+					new ASTRequestor() {
+						// the time between two calls is the parse of the
+						// next tree
+						private long parsed = AnalysisStats.start();
+
+						public void acceptAST(ICompilationUnit source,
+								CompilationUnit ast) {
+							AnalysisStats.stop(Stage.PARSE, parsed);
+							long t = AnalysisStats.start();
+							collector.depth = 0;
+							walker.walk(ast, collector);
+							AnalysisStats.stop(Stage.VISIT, t);
+							parsed = AnalysisStats.start();
+						}
+					}, projectProgress));
+			if (projectProgress.isCanceled())
+				throw new OperationCanceledException();
+		}
+		return this;
+	}// end addProjects(List<IJavaProject> projects, IProgressMonitor monitor)
+
+	// the number of call sites left out because their target was unknown
+	public int getNumberOfUnresolvedCalls() {
+		return this.numUnresolved;
+	}
+
+	// ---
+	// Returns the graph of everything added so far. It gets a copy of the
+	// key table, so adding more to the builder afterwards leaves the graph
+	// as it is.
+	// ---
+	public CallGraph build() {
+		return new CallGraph(new MethodKeyTable(methods), callers, callees,
+				numEdges);
+	}
+
+	private void addEdge(int caller, IMethodBinding target) {
+		if (target == null) {
+			numUnresolved++;
+			return;
+		}
+		int callee = methods.intern(target.getMethodDeclaration().getKey());
+		if (numEdges == callers.length) {
+			callers = Arrays.copyOf(callers, numEdges * 2);
+			callees = Arrays.copyOf(callees, numEdges * 2);
+		}
+		callers[numEdges] = caller;
+		callees[numEdges] = callee;
+		numEdges++;
+	}
+
+	// ---
+	// Walks one AST, keeping the IDs of the enclosing method declarations
+	// on a stack. It descends into every node type except Javadoc; the
+	// leaves MyVisitor skips cannot hold a call anyway. All of it happens
+	// in preVisit2 and postVisit, for the IterativeWalker.
+	// ---
+	private final class EdgeCollector extends ASTVisitor {
+		private int[] stack = new int[16];
+		private int depth;
+
+		// the resolve calls are timed on their own and as part of the visit
+		public boolean preVisit2(ASTNode node) {
+			long t;
+			switch (node.getNodeType()) {
+			case ASTNode.METHOD_DECLARATION:
+				t = AnalysisStats.start();
+				IMethodBinding binding = ((MethodDeclaration) node)
+						.resolveBinding();
+				AnalysisStats.stop(Stage.RESOLVE, t);
+				int id = binding == null ? -1 : methods.intern(binding
+						.getMethodDeclaration().getKey());
+				if (depth == stack.length)
+					stack = Arrays.copyOf(stack, depth * 2);
+				stack[depth++] = id;
+				break;
+			case ASTNode.METHOD_INVOCATION:
+				t = AnalysisStats.start();
+				IMethodBinding method = ((MethodInvocation) node)
+						.resolveMethodBinding();
+				AnalysisStats.stop(Stage.RESOLVE, t);
+				call(method);
+				break;
+			case ASTNode.SUPER_METHOD_INVOCATION:
+				t = AnalysisStats.start();
+				IMethodBinding superMethod = ((SuperMethodInvocation) node)
+						.resolveMethodBinding();
+				AnalysisStats.stop(Stage.RESOLVE, t);
+				call(superMethod);
+				break;
+			case ASTNode.CONSTRUCTOR_INVOCATION:
+				t = AnalysisStats.start();
+				IMethodBinding constructor = ((ConstructorInvocation) node)
+						.resolveConstructorBinding();
+				AnalysisStats.stop(Stage.RESOLVE, t);
+				call(constructor);
+				break;
+			case ASTNode.SUPER_CONSTRUCTOR_INVOCATION:
+				t = AnalysisStats.start();
+				IMethodBinding superConstructor = ((SuperConstructorInvocation) node)
+						.resolveConstructorBinding();
+				AnalysisStats.stop(Stage.RESOLVE, t);
+				call(superConstructor);
+				break;
+			default:
+				break;
+			}
+			return true;
+		}// end preVisit2(ASTNode node)
+
+		public void postVisit(ASTNode node) {
+			if (node.getNodeType() == ASTNode.METHOD_DECLARATION)
+				depth--;
+		}
+
+		private void call(IMethodBinding target) {
+			if (depth == 0)
+				return;
+			int caller = stack[depth - 1];
+			if (caller < 0) {
+				numUnresolved++;
+				return;
+			}
+			addEdge(caller, target);
+		}
+	}// end EdgeCollector
+
+}// end CallGraphBuilder
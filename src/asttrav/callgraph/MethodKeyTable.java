@@ -0,0 +1,111 @@
+package asttrav.callgraph;
+
+import java.util.Arrays;
+
+// ---
+// Interns method binding keys to dense int IDs, 0, 1, 2, ... in the order
+// they are first seen. The keys live in one array indexed by ID and the
+// lookup table is an open addressing int array of IDs, so the table holds
+// no boxed values and no entry objects.
+// ---
+public class MethodKeyTable {
+	private static final int EMPTY = -1;
+
+	private String[] keys;
+	private int[] hashes;
+	private int[] slots;
+	private int size;
+
+	public MethodKeyTable() {
+		this(1024);
+	}
+
+	public MethodKeyTable(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+		this.keys = new String[Math.max(4, expected)];
+		this.hashes = new int[this.keys.length];
+		this.slots = new int[capacity];
+		Arrays.fill(this.slots, EMPTY);
+	}
+
+	// ---
+	// A copy of the table with the same IDs, which later interning in
+	// either does not change in the other
+	// ---
+	public MethodKeyTable(MethodKeyTable other) {
+		this.keys = Arrays.copyOf(other.keys, Math.max(4, other.size));
+		this.hashes = Arrays.copyOf(other.hashes, this.keys.length);
+		this.slots = other.slots.clone();
+		this.size = other.size;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	// ---
+	// Returns the ID of the key, giving it the next free one if it has
+	// none yet
+	// ---
+	public int intern(String key) {
+		int hash = key.hashCode();
+		int mask = this.slots.length - 1;
+		int slot = mix(hash) & mask;
+		while (this.slots[slot] != EMPTY) {
+			int id = this.slots[slot];
+			if (this.hashes[id] == hash && this.keys[id].equals(key))
+				return id;
+			slot = (slot + 1) & mask;
+		}
+		int id = this.size++;
+		if (id == this.keys.length) {
+			this.keys = Arrays.copyOf(this.keys, id * 2);
+			this.hashes = Arrays.copyOf(this.hashes, id * 2);
+		}
+		this.keys[id] = key;
+		this.hashes[id] = hash;
+		this.slots[slot] = id;
+		if (this.size * 2 > this.slots.length)
+			rehash();
+		return id;
+	}
+
+	// returns the ID of the key or -1 if it was never interned
+	public int get(String key) {
+		int hash = key.hashCode();
+		int mask = this.slots.length - 1;
+		int slot = mix(hash) & mask;
+		while (this.slots[slot] != EMPTY) {
+			int id = this.slots[slot];
+			if (this.hashes[id] == hash && this.keys[id].equals(key))
+				return id;
+			slot = (slot + 1) & mask;
+		}
+		return EMPTY;
+	}
+
+	// returns the key of the ID
+	public String getKey(int id) {
+		if (id < 0 || id >= this.size)
+			throw new IndexOutOfBoundsException("no method with ID " + id);
+		return this.keys[id];
+	}
+
+	private void rehash() {
+		this.slots = new int[this.slots.length * 2];
+		Arrays.fill(this.slots, EMPTY);
+		int mask = this.slots.length - 1;
+		for (int id = 0; id < this.size; id++) {
+			int slot = mix(this.hashes[id]) & mask;
+			while (this.slots[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			this.slots[slot] = id;
+		}
+	}
+
+	private static int mix(int hash) {
+		int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+}// end MethodKeyTable
@@ -0,0 +1,27 @@
+package asttrav.headless;
+
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+
+// ---
+// Runs the headless analysis as an Eclipse application, for example
+//
+//   eclipse -nosplash -application ASTTrav.analyze -source src -out metrics.tsv
+//
+// The arguments are the same as those of Main.
+// ---
+public class AnalysisApplication implements IApplication {
+
+	public Object start(IApplicationContext context) throws Exception {
+		String[] args = (String[]) context.getArguments().get(
+				IApplicationContext.APPLICATION_ARGS);
+		int code = Main.run(args == null ? new String[0] : args);
+		return code == Main.EXIT_OK ? IApplication.EXIT_OK : Integer
+				.valueOf(code);
+	}
+
+	public void stop() {
+		// the analysis runs to completion on the thread that started it
+	}
+
+}// end AnalysisApplication
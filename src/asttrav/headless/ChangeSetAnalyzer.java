@@ -0,0 +1,357 @@
+package asttrav.headless;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import asttrav.popup.actions.Metric;
+import asttrav.results.CsvSink;
+import asttrav.results.JsonLinesReader;
+import asttrav.results.ResultSink;
+
+// ---
+// Brings the metrics of a repository from one revision to another by
+// analysing only the .java files that changed in between. The baseline
+// is the JSON Lines output of a full run at the base revision; every one
+// of its units that did not change is passed through as it is, the
+// changed ones are replaced by the counts at the head revision and the
+// deleted ones are left out. The sink so receives what a full run at the
+// head revision would have written, and can be the baseline of the next
+// change set.
+//
+// Units are matched by their path relative to the top of the work tree,
+// so the baseline must come from a run on the same repository, checked
+// out anywhere; it is told where, and the units it passes through are
+// moved to the work tree of the head revision, like the changed ones. A
+// changed or deleted file the baseline has no record of means it was not
+// made there, or not at the base revision, and fails the run. Only the
+// files below the source directories count, which must be those of the
+// baseline's run. The changed ones are analysed as extracted from git,
+// see GitChangeSet. For bindings, the source path holds each source
+// directory as it is in the extracted tree, then as it is in the work
+// tree.
+// ---
+public class ChangeSetAnalyzer {
+	private final HeadlessAnalyzer analyzer;
+	private final List<Path> sourceDirs;
+
+	// ---
+	// The source directories must be in the work tree of the repository
+	// ---
+	public ChangeSetAnalyzer(HeadlessAnalyzer analyzer, List<Path> sourceDirs) {
+		this.analyzer = analyzer;
+		this.sourceDirs = sourceDirs;
+	}
+
+	// ---
+	// Analyses the files that differ between the two revisions of the
+	// repository the directory is in, merges them into the baseline and
+	// writes the result to the sink. The baseline root is the top of the
+	// work tree the baseline was made in, that of the repository if null.
+	// ---
+	public Report analyze(Path repo, String base, String head, Path baseline,
+			Path baselineRoot, final ResultSink sink) throws IOException,
+			InterruptedException {
+		GitChangeSet changeSet = GitChangeSet.diff(repo, base, head,
+				sourceDirs);
+		final Path root = changeSet.getRoot().toAbsolutePath();
+		final Path baseRoot = baselineRoot == null ? root : baselineRoot
+				.toAbsolutePath().normalize();
+		final Map<String, Delta> deltas = new HashMap<>();
+		for (GitChangeSet.Change change : changeSet.getChanges())
+			deltas.put(change.getPath(), new Delta(change.getStatus(),
+					root.resolve(change.getPath()).toString()));
+		final Report report = new Report();
+
+		// the counts at the head revision, by path in the repository
+		Path workDir = Files.createTempDirectory("asttrav-changes");
+		try {
+			List<String> files = changeSet.extract(workDir);
+			final Path extracted = workDir.toAbsolutePath();
+			// the packages start at the source directories, not at the top
+			// of the tree, so each one is rebuilt below the extracted files
+			List<Path> sourcepath = new ArrayList<>();
+			for (Path dir : sourceDirs) {
+				Path extractedDir = changeSet.extractedDir(extracted, dir);
+				Files.createDirectories(extractedDir);
+				sourcepath.add(extractedDir);
+			}
+			sourcepath.addAll(sourceDirs);
+			analyzer.analyze(files, sourcepath, new UnitSink() {
+				public void unit(String unit, int numNodes, int numCalls,
+						Map<Metric, Long> values) {
+					Delta delta = deltas.get(path(extracted, unit));
+					if (delta == null)
+						return;
+					synchronized (delta) {
+						delta.numNodes = numNodes;
+						delta.numCalls = numCalls;
+						delta.values.putAll(values);
+					}
+				}
+
+				public void method(String unit, String type, String method,
+						int numCalls) {
+					Delta delta = deltas.get(path(extracted, unit));
+					if (delta == null)
+						return;
+					synchronized (delta) {
+						delta.methods.add(new MethodRecord(type, method,
+								numCalls));
+					}
+				}
+			});
+		} finally {
+			deleteDirectory(workDir);
+		}
+
+		// the baseline, with the changed units taken out
+		JsonLinesReader.replay(baseline, new ResultSink() {
+			public void unit(String unit, int numNodes, int numCalls)
+					throws IOException {
+				unit(unit, numNodes, numCalls, Collections
+						.<Metric, Long> emptyMap());
+			}
+
+			public void unit(String unit, int numNodes, int numCalls,
+					Map<Metric, Long> values) throws IOException {
+				report.before.add(numNodes, numCalls);
+				String path = path(baseRoot, unit);
+				Delta delta = path == null ? null : deltas.get(path);
+				if (delta == null) {
+					sink.unit(moved(path, unit), numNodes, numCalls, values);
+					report.after.add(numNodes, numCalls);
+				} else {
+					delta.numNodesBefore = numNodes;
+					delta.numCallsBefore = numCalls;
+				}
+			}
+
+			public void method(String unit, String type, String method,
+					int numCalls) throws IOException {
+				String path = path(baseRoot, unit);
+				if (path == null || !deltas.containsKey(path))
+					sink.method(moved(path, unit), type, method, numCalls);
+			}
+
+			// the unit in the work tree of the head revision
+			private String moved(String path, String unit) {
+				return path == null || baseRoot.equals(root) ? unit : root
+						.resolve(path).toString();
+			}
+
+			public void flush() {
+			}
+
+			public void close() {
+			}
+		});
+
+		for (GitChangeSet.Change change : changeSet.getChanges()) {
+			if (change.getStatus() != GitChangeSet.ADDED
+					&& deltas.get(change.getPath()).numNodesBefore < 0)
+				throw new IOException(baseline + " has no record of "
+						+ baseRoot.resolve(change.getPath()) + ", was it made in "
+						+ baseRoot + " at " + base + "?");
+		}
+
+		// and the changed units at the head revision
+		for (GitChangeSet.Change change : changeSet.getChanges()) {
+			Delta delta = deltas.get(change.getPath());
+			if (delta.numNodes >= 0) {
+				sink.unit(delta.unit, delta.numNodes, delta.numCalls,
+						delta.values);
+				for (MethodRecord record : delta.methods)
+					sink.method(delta.unit, record.type, record.method,
+							record.numCalls);
+				report.after.add(delta.numNodes, delta.numCalls);
+			}
+			report.deltas.add(delta);
+		}
+		return report;
+	}// end analyze(Path repo, String base, String head, Path baseline, ...)
+
+	// ---
+	// The path of the file relative to the directory with / separators,
+	// as GitChangeSet has it, or null when it is not below the directory
+	// ---
+	private static String path(Path dir, String unit) {
+		Path path = Paths.get(unit);
+		if (!path.isAbsolute() || !path.startsWith(dir))
+			return null;
+		return dir.relativize(path).toString().replace(File.separatorChar, '/');
+	}
+
+	private static void deleteDirectory(Path dir) throws IOException {
+		try (Stream<Path> walk = Files.walk(dir)) {
+			walk.sorted(Collections.reverseOrder()).forEach(
+					p -> p.toFile().delete());
+		}
+	}
+
+	// ---
+	// A sink for the records of the head revision
+	// ---
+	private abstract static class UnitSink implements ResultSink {
+		public void unit(String unit, int numNodes, int numCalls) {
+			unit(unit, numNodes, numCalls, Collections
+					.<Metric, Long> emptyMap());
+		}
+
+		public abstract void unit(String unit, int numNodes, int numCalls,
+				Map<Metric, Long> values);
+
+		public void flush() {
+		}
+
+		public void close() {
+		}
+	}
+
+	// ---
+	// The counts of one changed file before and after, -1 where the file
+	// did not exist or was not in the baseline
+	// ---
+	public static final class Delta {
+		private final char status;
+		private final String unit;
+		private int numNodesBefore = -1;
+		private int numCallsBefore = -1;
+		private int numNodes = -1;
+		private int numCalls = -1;
+		// the further metrics and the method records at the head revision
+		private final Map<Metric, Long> values = new EnumMap<>(Metric.class);
+		private final List<MethodRecord> methods = new ArrayList<>();
+
+		Delta(char status, String unit) {
+			this.status = status;
+			this.unit = unit;
+		}
+
+		// see GitChangeSet
+		public char getStatus() {
+			return status;
+		}
+
+		public String getUnit() {
+			return unit;
+		}
+
+		public int getNumberOfNodesBefore() {
+			return numNodesBefore;
+		}
+
+		public int getNumberOfMethodCallsBefore() {
+			return numCallsBefore;
+		}
+
+		public int getNumberOfNodes() {
+			return numNodes;
+		}
+
+		public int getNumberOfMethodCalls() {
+			return numCalls;
+		}
+	}// end Delta
+
+	// one method record of a changed unit
+	private static final class MethodRecord {
+		private final String type;
+		private final String method;
+		private final int numCalls;
+
+		MethodRecord(String type, String method, int numCalls) {
+			this.type = type;
+			this.method = method;
+			this.numCalls = numCalls;
+		}
+	}
+
+	// ---
+	// Totals over a set of units
+	// ---
+	public static final class Totals {
+		private long numFiles;
+		private long numNodes;
+		private long numCalls;
+
+		void add(int nodes, int calls) {
+			numFiles++;
+			numNodes += nodes;
+			numCalls += calls;
+		}
+
+		public long getNumberOfFiles() {
+			return numFiles;
+		}
+
+		public long getNumberOfNodes() {
+			return numNodes;
+		}
+
+		public long getNumberOfMethodCalls() {
+			return numCalls;
+		}
+	}// end Totals
+
+	// ---
+	// The workspace totals at both revisions and the change of every file
+	// ---
+	public static final class Report {
+		private final Totals before = new Totals();
+		private final Totals after = new Totals();
+		private final List<Delta> deltas = new ArrayList<>();
+
+		// the totals of the baseline
+		public Totals getBefore() {
+			return before;
+		}
+
+		// the totals of what went to the sink
+		public Totals getAfter() {
+			return after;
+		}
+
+		public List<Delta> getDeltas() {
+			return Collections.unmodifiableList(deltas);
+		}
+
+		// ---
+		// Writes the report as CSV: a line per changed file, then one with
+		// the totals, the unit column empty
+		//
+		//   status,unit,nodesBefore,callsBefore,nodes,calls
+		// ---
+		public void writeCsv(Path file) throws IOException {
+			try (BufferedWriter out = Files.newBufferedWriter(file,
+					StandardCharsets.UTF_8)) {
+				out.write("status,unit,nodesBefore,callsBefore,nodes,calls\n");
+				StringBuilder line = new StringBuilder();
+				for (Delta delta : deltas) {
+					line.setLength(0);
+					line.append(delta.status).append(',');
+					CsvSink.field(line, delta.unit);
+					line.append(',').append(delta.numNodesBefore);
+					line.append(',').append(delta.numCallsBefore);
+					line.append(',').append(delta.numNodes);
+					line.append(',').append(delta.numCalls).append('\n');
+					out.write(line.toString());
+				}
+				out.write("total,," + before.numNodes + "," + before.numCalls
+						+ "," + after.numNodes + "," + after.numCalls + "\n");
+			}
+		}// end writeCsv(Path file)
+	}// end Report
+
+}// end ChangeSetAnalyzer
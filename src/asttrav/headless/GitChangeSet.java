@@ -0,0 +1,257 @@
+package asttrav.headless;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// ---
+// The .java files below some directories of a git repository that differ
+// between two revisions, found by running the git command line in it:
+//
+//   git diff --name-status -z --no-renames <base> <head> -- <dir>...
+//
+// Renames and copies come out as a deletion and an addition, which is
+// what the metrics of a file keyed by its path need. The contents of the
+// files at the head revision are read with a single git cat-file --batch,
+// so neither revision has to be checked out and the cost follows the size
+// of the diff. Paths are relative to the top of the work tree and use /.
+// ---
+public final class GitChangeSet {
+	public static final char ADDED = 'A';
+	public static final char MODIFIED = 'M';
+	public static final char DELETED = 'D';
+
+	private final Path root;
+	private final String head;
+	private final List<Change> changes;
+
+	private GitChangeSet(Path root, String head, List<Change> changes) {
+		this.root = root;
+		this.head = head;
+		this.changes = Collections.unmodifiableList(changes);
+	}
+
+	// ---
+	// Diffs the two revisions of the repository the directory is in,
+	// keeping the files below the given directories, which must be in its
+	// work tree
+	// ---
+	public static GitChangeSet diff(Path repo, String base, String head,
+			List<Path> dirs) throws IOException {
+		Path root = Paths.get(new String(git(repo, "rev-parse",
+				"--show-toplevel"), StandardCharsets.UTF_8).trim());
+		List<String> args = new ArrayList<>(Arrays.asList("diff",
+				"--name-status", "-z", "--no-renames", base, head, "--"));
+		for (Path dir : dirs)
+			args.add(pathspec(root, dir));
+		byte[] out = git(root, args.toArray(new String[args.size()]));
+		String[] fields = new String(out, StandardCharsets.UTF_8).split("\0");
+		List<Change> changes = new ArrayList<>();
+		for (int i = 0; i + 1 < fields.length; i += 2) {
+			if (!fields[i + 1].endsWith(".java"))
+				continue;
+			char status = fields[i].charAt(0);
+			// a type change, say from a symbolic link, is a modification
+			if (status != ADDED && status != DELETED)
+				status = MODIFIED;
+			changes.add(new Change(status, fields[i + 1]));
+		}
+		return new GitChangeSet(root, head, changes);
+	}// end diff(Path repo, String base, String head, List<Path> dirs)
+
+	// ---
+	// The directory as a pathspec relative to the top of the work tree,
+	// taken literally so brackets or stars in its name match only
+	// themselves
+	// ---
+	private static String pathspec(Path root, Path dir) throws IOException {
+		String relative = relativePath(root, dir);
+		return ":(literal)" + (relative.isEmpty() ? "." : relative);
+	}
+
+	// ---
+	// The path of the directory relative to the top of the work tree, with
+	// / separators, empty for the top itself
+	// ---
+	private static String relativePath(Path root, Path dir)
+			throws IOException {
+		Path top = root.toRealPath();
+		Path path = dir.toRealPath();
+		if (!path.startsWith(top))
+			throw new IOException(dir + " is not in the work tree " + root);
+		return top.relativize(path).toString()
+				.replace(File.separatorChar, '/');
+	}
+
+	// ---
+	// Where extract(to) writes the files below the directory, which must
+	// be in the work tree
+	// ---
+	public Path extractedDir(Path to, Path dir) throws IOException {
+		return to.resolve(relativePath(root, dir)).toAbsolutePath();
+	}
+
+	// the top of the work tree, which the paths are relative to
+	public Path getRoot() {
+		return root;
+	}
+
+	public List<Change> getChanges() {
+		return changes;
+	}
+
+	// ---
+	// Writes the head revision of every file that was added or modified
+	// below the directory, under its path in the repository, and returns
+	// the files written as absolute paths, in the order of getChanges
+	// ---
+	public List<String> extract(Path dir) throws IOException {
+		final List<Change> present = new ArrayList<>();
+		for (Change change : changes) {
+			if (change.status != DELETED)
+				present.add(change);
+		}
+		List<String> files = new ArrayList<>(present.size());
+		if (present.isEmpty())
+			return files;
+		StringBuilder requests = new StringBuilder();
+		for (Change change : present)
+			requests.append(head).append(':').append(change.path).append('\n');
+		ProcessBuilder builder = new ProcessBuilder("git", "cat-file",
+				"--batch");
+		builder.directory(root.toFile());
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		Process process = builder.start();
+		// written from another thread so neither side blocks on a full pipe
+		Thread writer = feed(process.getOutputStream(), requests.toString()
+				.getBytes(StandardCharsets.UTF_8));
+		try (InputStream in = process.getInputStream()) {
+			for (Change change : present) {
+				String header = readLine(in);
+				String[] parts = header.split(" ");
+				if (parts.length != 3 || !"blob".equals(parts[1]))
+					throw new IOException("git cat-file: " + header + " for "
+							+ change.path);
+				byte[] content = readFully(in, Integer.parseInt(parts[2]));
+				// every object is followed by a newline
+				in.read();
+				Path file = dir.resolve(change.path).toAbsolutePath();
+				Files.createDirectories(file.getParent());
+				Files.write(file, content);
+				files.add(file.toString());
+			}
+		} finally {
+			process.destroy();
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		return files;
+	}// end extract(Path dir)
+
+	// ---
+	// Runs git in the directory and returns its output, failing when git
+	// does
+	// ---
+	private static byte[] git(Path dir, String... args)
+			throws IOException {
+		List<String> command = new ArrayList<>();
+		command.add("git");
+		command.addAll(Arrays.asList(args));
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.directory(dir.toFile());
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		Process process = builder.start();
+		process.getOutputStream().close();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = process.getInputStream()) {
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) > 0)
+				out.write(buffer, 0, n);
+		}
+		try {
+			int code = process.waitFor();
+			if (code != 0)
+				throw new IOException(command + " failed with exit code "
+						+ code);
+		} catch (InterruptedException ex) {
+			process.destroy();
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while running " + command);
+		}
+		return out.toByteArray();
+	}// end git(Path dir, String... args)
+
+	private static Thread feed(final OutputStream out, final byte[] input) {
+		Thread thread = new Thread(() -> {
+			try (OutputStream stream = out) {
+				stream.write(input);
+			} catch (IOException ex) {
+				// git went away, the reader finds out
+			}
+		}, "asttrav-git-input");
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+		int c;
+		while ((c = in.read()) != '\n') {
+			if (c < 0)
+				throw new IOException("git cat-file ended early");
+			line.write(c);
+		}
+		return new String(line.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static byte[] readFully(InputStream in, int length)
+			throws IOException {
+		byte[] content = new byte[length];
+		int n = 0;
+		while (n < length) {
+			int read = in.read(content, n, length - n);
+			if (read < 0)
+				throw new IOException("git cat-file ended early");
+			n += read;
+		}
+		return content;
+	}
+
+	// ---
+	// One changed file: its status, ADDED, MODIFIED or DELETED, and its
+	// path in the repository
+	// ---
+	public static final class Change {
+		private final char status;
+		private final String path;
+
+		Change(char status, String path) {
+			this.status = status;
+			this.path = path;
+		}
+
+		public char getStatus() {
+			return status;
+		}
+
+		public String getPath() {
+			return path;
+		}
+	}// end Change
+
+}// end GitChangeSet
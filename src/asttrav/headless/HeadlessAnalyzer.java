@@ -0,0 +1,271 @@
+package asttrav.headless;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.FileASTRequestor;
+
+import asttrav.metrics.FusedVisitor;
+import asttrav.metrics.MetricRegistry;
+import asttrav.popup.actions.AnalysisOptions;
+import asttrav.popup.actions.DeepStack;
+import asttrav.popup.actions.IterativeWalker;
+import asttrav.popup.actions.MemoryBudget;
+import asttrav.popup.actions.MethodCountingVisitor;
+import asttrav.popup.actions.Metric;
+import asttrav.results.ResultSink;
+import asttrav.stats.AnalysisStats;
+import asttrav.stats.Stage;
+
+// ---
+// Runs the MyVisitor counts over the .java files below a set of source
+// directories without a workspace or a workbench. The environment of the
+// parser (classpath, source path, encoding) is set explicitly through
+// ASTParser.setEnvironment. The files are cut into batches that are
+// parsed with createASTs on a fixed pool of worker threads; every worker
+// builds its own parser, so no parser is ever shared between threads.
+// A batch holds on to its bindings until it is done, so each one counts
+// against the MemoryBudget of the options while it runs.
+//
+// Every file gives the sink a unit record and a method record for each
+// method of its top level and member types, with the calls made from
+// it, see MethodCountingVisitor. The unit record carries the method
+// reference and object creation counts of the file as the values of
+// METHOD_REFERENCE_COUNT and OBJECT_CREATION_COUNT. When the options ask
+// for further metrics with a plug-in in the standard MetricRegistry, a
+// FusedVisitor walks the same tree once more for them and their values
+// go into the unit record too.
+// ---
+public class HeadlessAnalyzer {
+	// the most files handed to one createASTs call; bounds the memory a
+	// batch can hold on to and keeps the workers evenly loaded
+	private static final int MAX_BATCH = 256;
+
+	private final String[] classpath;
+	private final String encoding;
+	private final int threads;
+	private final AnalysisOptions options;
+	// the further metrics of the options, maybe none
+	private final Set<Metric> extraMetrics;
+	private final MetricRegistry registry = MetricRegistry.standard();
+
+	public HeadlessAnalyzer(String[] classpath, String encoding, int threads,
+			AnalysisOptions options) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be positive");
+		this.classpath = classpath;
+		this.encoding = encoding;
+		this.threads = threads;
+		this.options = options;
+		this.extraMetrics = registry.getExtraMetrics(options.getMetrics());
+	}
+
+	// ---
+	// Analyses every .java file below the given source directories and
+	// writes the counts of each and of its methods to the sink as soon as
+	// they are known.
+	// The sink is called from the worker threads.
+	// ---
+	public Totals analyze(List<Path> sourceDirs, ResultSink sink)
+			throws IOException, InterruptedException {
+		return analyze(findSources(sourceDirs), sourceDirs, sink);
+	}
+
+	// ---
+	// Analyses the given .java files, absolute paths, with the source
+	// directories on the source path. This is what a worker of a
+	// ShardedAnalyzer runs for every shard.
+	// ---
+	public Totals analyze(List<String> files, List<Path> sourceDirs,
+			final ResultSink sink) throws IOException, InterruptedException {
+		final String[] sourcepath = new String[sourceDirs.size()];
+		for (int i = 0; i < sourcepath.length; i++)
+			sourcepath[i] = sourceDirs.get(i).toAbsolutePath().toString();
+
+		final LongAdder numFiles = new LongAdder();
+		final LongAdder numNodes = new LongAdder();
+		final LongAdder numCalls = new LongAdder();
+		int batchSize = Math.max(1, Math.min(MAX_BATCH,
+				(files.size() + threads - 1) / threads));
+
+		// createASTs recurses as deep as a file nests, see DeepStack
+		ExecutorService pool = Executors.newFixedThreadPool(threads,
+				DeepStack.threadFactory("Headless parser ")); //$NON-NLS-1$
+		try {
+			List<Future<?>> batches = new ArrayList<>();
+			for (int from = 0; from < files.size(); from += batchSize) {
+				final String[] batch = files.subList(from,
+						Math.min(files.size(), from + batchSize)).toArray(
+						new String[0]);
+				batches.add(pool.submit(new Runnable() {
+					public void run() {
+						final MethodCountingVisitor visitor = new MethodCountingVisitor();
+						final IterativeWalker walker = new IterativeWalker();
+						final FusedVisitor fused = extraMetrics.isEmpty() ? null
+								: registry.newVisitor(extraMetrics);
+						ASTParser parser = newParser(sourcepath);
+						// a batch keeps its bindings until it is done
+						MemoryBudget budget = options.getMemoryBudget();
+						budget.acquire(null);
+						try {
+							parseBatch(parser, batch, visitor, fused, walker,
+									sink, numFiles, numNodes, numCalls);
+						} finally {
+							budget.release();
+						}
+					}
+				}));
+			}
+			for (Future<?> batch : batches) {
+				try {
+					batch.get();
+				} catch (ExecutionException ex) {
+					if (ex.getCause() instanceof UncheckedIOException)
+						throw ((UncheckedIOException) ex.getCause()).getCause();
+					throw new IOException("Analysis failed", ex.getCause());
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return new Totals(numFiles.sum(), numNodes.sum(), numCalls.sum());
+	}// end analyze(List<String> files, List<Path> sourceDirs, ResultSink sink)
+
+	// ---
+	// Parses one batch of files and writes the counts of each and of its
+	// methods to the sink. The fused visitor may be null.
+	// Every tree is visited as soon as the parser hands it over and is not
+	// referenced afterwards.
+	// ---
+	private void parseBatch(ASTParser parser, String[] batch,
+			final MethodCountingVisitor visitor, final FusedVisitor fused,
+			final IterativeWalker walker, final ResultSink sink,
+			final LongAdder numFiles, final LongAdder numNodes,
+			final LongAdder numCalls) {
+		parser.createASTs(batch, encodings(batch.length), new String[0],
+				new FileASTRequestor() {
+					// the parser reads and builds the next tree between
+					// two calls, so the time since the last one is its parse
+					private long parsed = AnalysisStats.start();
+					private long mark = AnalysisStats.allocationMark();
+
+					public void acceptAST(String sourceFilePath,
+							CompilationUnit ast) {
+						AnalysisStats.stop(Stage.PARSE, parsed);
+						long t = AnalysisStats.start();
+						visitor.reset();
+						walker.walk(ast, visitor);
+						Map<Metric, Long> values = new EnumMap<>(Metric.class);
+						values.put(Metric.METHOD_REFERENCE_COUNT, Long
+								.valueOf(visitor.getNumberOfMethodReferences()));
+						values.put(Metric.OBJECT_CREATION_COUNT, Long
+								.valueOf(visitor.getNumberOfObjectCreations()));
+						if (fused != null) {
+							fused.reset();
+							walker.walk(ast, fused);
+							values.putAll(fused.getValues());
+						}
+						AnalysisStats.stop(Stage.VISIT, t);
+						AnalysisStats.fileDone(visitor.getNumberOfNodes(), mark);
+						numFiles.increment();
+						numNodes.add(visitor.getNumberOfNodes());
+						numCalls.add(visitor.getNumberOfMethodCalls());
+						try {
+							sink.unit(sourceFilePath,
+									visitor.getNumberOfNodes(),
+									visitor.getNumberOfMethodCalls(), values);
+							for (int m = 0; m < visitor.getNumberOfMethods(); m++)
+								sink.method(sourceFilePath,
+										visitor.getTypeName(m),
+										visitor.getMethodName(m),
+										visitor.getNumberOfMethodCalls(m));
+						} catch (IOException ex) {
+							throw new UncheckedIOException(ex);
+						}
+						parsed = AnalysisStats.start();
+						mark = AnalysisStats.allocationMark();
+					}
+				}, null);
+	}// end parseBatch(ASTParser parser, String[] batch, ...)
+
+	// ---
+	// Returns a parser set up from the analysis options with the explicit
+	// environment a headless run needs
+	// ---
+	private ASTParser newParser(String[] sourcepath) {
+		ASTParser parser = options.newParser();
+		parser.setCompilerOptions(options.getCompilerOptions());
+		parser.setEnvironment(classpath, sourcepath,
+				encodings(sourcepath.length), true);
+		return parser;
+	}// end newParser(String[] sourcepath)
+
+	private String[] encodings(int length) {
+		if (encoding == null)
+			return null;
+		String[] result = new String[length];
+		Arrays.fill(result, encoding);
+		return result;
+	}
+
+	// every .java file below the directories, in a stable order
+	static List<String> findSources(List<Path> sourceDirs)
+			throws IOException {
+		List<String> files = new ArrayList<>();
+		for (Path dir : sourceDirs) {
+			try (Stream<Path> walk = Files.walk(dir)) {
+				files.addAll(walk
+						.filter(p -> p.toString().endsWith(".java")
+								&& Files.isRegularFile(p))
+						.map(p -> p.toAbsolutePath().toString()).sorted()
+						.collect(Collectors.toList()));
+			}
+		}
+		return files;
+	}// end findSources(List<Path> sourceDirs)
+
+	// ---
+	// The totals over all analysed files
+	// ---
+	public static class Totals {
+		private final long numFiles;
+		private final long numNodes;
+		private final long numCalls;
+
+		public Totals(long numFiles, long numNodes, long numCalls) {
+			this.numFiles = numFiles;
+			this.numNodes = numNodes;
+			this.numCalls = numCalls;
+		}
+
+		public long getNumberOfFiles() {
+			return this.numFiles;
+		}
+
+		public long getNumberOfNodes() {
+			return this.numNodes;
+		}
+
+		public long getNumberOfMethodCalls() {
+			return this.numCalls;
+		}
+	}// end Totals
+
+}// end HeadlessAnalyzer
@@ -0,0 +1,433 @@
+package asttrav.headless;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import asttrav.metrics.MetricRegistry;
+import asttrav.popup.actions.AnalysisOptions;
+import asttrav.popup.actions.MemoryBudget;
+import asttrav.popup.actions.Metric;
+import asttrav.results.ChannelSink;
+import asttrav.results.ResultSink;
+import asttrav.stats.AnalysisStats;
+
+// ---
+// Command line entry point of the headless analysis. It only needs the
+// jdt.core jar and its dependencies on the classpath, no running Eclipse;
+// AnalysisApplication runs the same thing as an Eclipse application.
+//
+//   -source <dir>      a source directory, may be repeated
+//   -classpath <path>  jars and class folders, separated by File.pathSeparator
+//   -encoding <name>   the encoding of the sources, platform default if absent
+//   -threads <n>       parser threads, the number of processors if absent
+//   -out <file>        where the results go, standard output if absent
+//   -format <name>     jsonl or csv, from the -out extension if absent
+//   -bindings          resolve bindings while parsing
+//   -heapBudget <n>    heap the ASTs in flight may use, <n>% or <n>[k|m|g]
+//   -jls <n>           the JLS level to parse at, or latest; 8 if absent
+//   -metrics <names>   further metrics of every unit, comma separated, e.g.
+//                      cyclomatic_complexity,nesting_depth; see Metric.
+//                      method_reference_count and object_creation_count
+//                      are always written
+//   -workers <n>       run the analysis in n worker JVMs, see ShardedAnalyzer
+//   -workerHeap <n>    the maximum heap of a worker, as for -Xmx
+//   -base <rev>        only analyse what changed since the git revision,
+//                      below the -source directories, see ChangeSetAnalyzer
+//   -head <rev>        the revision to analyse, HEAD if absent
+//   -repo <dir>        the git repository, the current directory if absent
+//   -baseline <file>   the JSON Lines output of a full run at -base
+//   -baseRoot <dir>    the top of the work tree -baseline was made in,
+//                      the one of -repo if absent
+//   -deltas <file>     where the changes per file go, as CSV
+//
+// The workers are started with the java and classpath of this JVM and
+// get the analysis arguments above, -threads defaulting to a fair share
+// of the processors; -worker makes a JVM one of them, see ShardWorker.
+// That classpath only holds Main when it was started with java -cp, so
+// -workers is refused inside an OSGi framework such as the ASTTrav.analyze
+// application, whose classpath is the Equinox launcher.
+//
+// -Dasttrav.stats=true -Dasttrav.stats.dump=<file> writes the stage timings
+// of the run to the file, see AnalysisStats, however the run ends. The
+// workers get every asttrav.* property and each writes <file>.worker-<pid>.
+// -Dasttrav.stackSize=<bytes> sets the stack of the parser threads, see
+// DeepStack.
+// ---
+public class Main {
+	public static final int EXIT_OK = 0;
+	public static final int EXIT_USAGE = 2;
+	public static final int EXIT_FAILED = 1;
+
+	public static void main(String[] args) {
+		System.exit(run(args));
+	}
+
+	// ---
+	// Parses the arguments, runs the analysis and returns the exit code
+	// ---
+	public static int run(String[] args) {
+		List<Path> sources = new ArrayList<>();
+		String[] classpath = new String[0];
+		String encoding = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		Path out = null;
+		String format = null;
+		boolean bindings = false;
+		MemoryBudget budget = null;
+		String jls = null;
+		Set<Metric> metrics = EnumSet.of(Metric.NODE_COUNT,
+				Metric.METHOD_CALL_COUNT);
+		int workers = 0;
+		String workerHeap = null;
+		boolean worker = false;
+		boolean threadsGiven = false;
+		String base = null;
+		String head = "HEAD";
+		Path repo = Paths.get(".");
+		Path baseline = null;
+		Path baselineRoot = null;
+		Path deltas = null;
+		// the arguments a worker gets
+		List<String> analysisArgs = new ArrayList<>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				int first = i;
+				if ("-source".equals(arg))
+					sources.add(Paths.get(value(args, ++i, arg)));
+				else if ("-classpath".equals(arg))
+					classpath = value(args, ++i, arg).split(File.pathSeparator);
+				else if ("-encoding".equals(arg))
+					encoding = value(args, ++i, arg);
+				else if ("-threads".equals(arg)) {
+					threads = Integer.parseInt(value(args, ++i, arg));
+					if (threads < 1)
+						throw new IllegalArgumentException(
+								"-threads must be positive");
+					threadsGiven = true;
+				} else if ("-out".equals(arg))
+					out = Paths.get(value(args, ++i, arg));
+				else if ("-format".equals(arg)) {
+					format = value(args, ++i, arg);
+					if (!ChannelSink.isFormat(format))
+						throw new IllegalArgumentException("Unknown format "
+								+ format);
+				} else if ("-bindings".equals(arg))
+					bindings = true;
+				else if ("-heapBudget".equals(arg))
+					budget = MemoryBudget.parse(value(args, ++i, arg));
+				else if ("-jls".equals(arg))
+					jls = value(args, ++i, arg);
+				else if ("-metrics".equals(arg))
+					metrics.addAll(parseMetrics(value(args, ++i, arg)));
+				else if ("-workers".equals(arg)) {
+					workers = Integer.parseInt(value(args, ++i, arg));
+					if (workers < 1)
+						throw new IllegalArgumentException(
+								"-workers must be positive");
+					if (!canStartWorkers())
+						throw new IllegalArgumentException(
+								"-workers needs a JVM started with java -cp,"
+										+ " not an Eclipse application");
+					continue;
+				} else if ("-workerHeap".equals(arg)) {
+					workerHeap = value(args, ++i, arg);
+					continue;
+				} else if ("-worker".equals(arg)) {
+					worker = true;
+					continue;
+				} else if ("-base".equals(arg))
+					base = value(args, ++i, arg);
+				else if ("-head".equals(arg))
+					head = value(args, ++i, arg);
+				else if ("-repo".equals(arg))
+					repo = Paths.get(value(args, ++i, arg));
+				else if ("-baseline".equals(arg))
+					baseline = Paths.get(value(args, ++i, arg));
+				else if ("-baseRoot".equals(arg))
+					baselineRoot = Paths.get(value(args, ++i, arg));
+				else if ("-deltas".equals(arg))
+					deltas = Paths.get(value(args, ++i, arg));
+				else
+					throw new IllegalArgumentException("Unknown argument " + arg);
+				if (!"-out".equals(arg) && !"-format".equals(arg))
+					analysisArgs.addAll(Arrays.asList(args).subList(first,
+							i + 1));
+			}
+			if (base != null && baseline == null)
+				throw new IllegalArgumentException("-base needs a -baseline");
+			if (base != null && workers > 0)
+				throw new IllegalArgumentException(
+						"-base and -workers cannot be combined");
+			if (sources.isEmpty())
+				throw new IllegalArgumentException("No -source given");
+		} catch (IllegalArgumentException ex) {
+			System.err.println(ex.getMessage());
+			System.err.println("usage: -source <dir>... [-classpath <path>]"
+					+ " [-encoding <name>] [-threads <n>] [-out <file>]"
+					+ " [-format jsonl|csv] [-bindings] [-heapBudget <n>]"
+					+ " [-jls <n>|latest] [-metrics <name>,...]"
+					+ " [-workers <n>] [-workerHeap <n>]"
+					+ " [-base <rev> -baseline <file> [-head <rev>]"
+					+ " [-repo <dir>] [-baseRoot <dir>] [-deltas <file>]]");
+			return EXIT_USAGE;
+		}
+
+		AnalysisOptions options = new AnalysisOptions(metrics);
+		// a column for each metric beyond the node and call counts
+		Set<Metric> columns = MetricRegistry.standard().getExtraMetrics(
+				metrics);
+		columns.add(Metric.METHOD_REFERENCE_COUNT);
+		columns.add(Metric.OBJECT_CREATION_COUNT);
+		try {
+			if (jls != null)
+				options = options.withJlsLevel("latest".equals(jls) ? AnalysisOptions
+						.getLatestJlsLevel() : Integer.parseInt(jls));
+		} catch (IllegalArgumentException ex) {
+			System.err.println(ex.getMessage());
+			return EXIT_USAGE;
+		}
+		if (bindings)
+			options = options.withBindings();
+		if (budget != null)
+			options = options.withMemoryBudget(budget);
+		try {
+			if (workers > 0)
+				return runSharded(workerCommand(analysisArgs, workers,
+						threadsGiven, workerHeap), workers, sources, out,
+						format, columns);
+			HeadlessAnalyzer analyzer = new HeadlessAnalyzer(classpath,
+					encoding, threads, options);
+			if (worker)
+				return runWorker(analyzer, sources);
+			if (base != null)
+				return runChangeSet(new ChangeSetAnalyzer(analyzer, sources),
+						repo, base, head, baseline, baselineRoot, deltas, out,
+						format, columns);
+			return runAnalysis(analyzer, sources, out, format, columns);
+		} finally {
+			// workers share the property, each writes a file of its own
+			dumpStats(worker ? ".worker-" + processId() : "");
+		}
+	}// end run(String[] args)
+
+	// ---
+	// Runs the analysis in this JVM and writes the results
+	// ---
+	private static int runAnalysis(HeadlessAnalyzer analyzer,
+			List<Path> sources, Path out, String format,
+			Collection<Metric> columns) {
+		try (ResultSink sink = openSink(out, format, columns)) {
+			HeadlessAnalyzer.Totals totals = analyzer.analyze(sources, sink);
+			sink.flush();
+			System.err.println("Analysed " + totals.getNumberOfFiles()
+					+ " files: " + totals.getNumberOfNodes() + " nodes, "
+					+ totals.getNumberOfMethodCalls() + " method calls");
+			return EXIT_OK;
+		} catch (IOException | RuntimeException ex) {
+			ex.printStackTrace();
+			return EXIT_FAILED;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return EXIT_FAILED;
+		}
+	}// end runAnalysis(HeadlessAnalyzer analyzer, List<Path> sources, ...)
+
+	// ---
+	// Runs the analysis in worker JVMs and writes the merged results
+	// ---
+	private static int runSharded(List<String> command, int workers,
+			List<Path> sources, Path out, String format,
+			Collection<Metric> columns) {
+		ShardedAnalyzer analyzer = new ShardedAnalyzer(command, workers);
+		try (ResultSink sink = openSink(out, format, columns)) {
+			ShardedAnalyzer.Totals totals = analyzer.analyze(sources, sink);
+			sink.flush();
+			System.err.println("Analysed " + totals.getNumberOfFiles()
+					+ " files in " + workers + " workers: "
+					+ totals.getNumberOfNodes() + " nodes, "
+					+ totals.getNumberOfMethodCalls() + " method calls");
+			List<String> failed = totals.getFailedFiles();
+			if (!failed.isEmpty()) {
+				System.err.println(failed.size() + " files failed:");
+				for (String file : failed)
+					System.err.println("  " + file);
+			}
+			return failed.isEmpty() ? EXIT_OK : EXIT_FAILED;
+		} catch (IOException | RuntimeException ex) {
+			ex.printStackTrace();
+			return EXIT_FAILED;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return EXIT_FAILED;
+		}
+	}// end runSharded(List<String> command, int workers, ...)
+
+	// ---
+	// Analyses what changed between two revisions and writes the results
+	// of the head revision, the totals and their change
+	// ---
+	private static int runChangeSet(ChangeSetAnalyzer analyzer, Path repo,
+			String base, String head, Path baseline, Path baselineRoot,
+			Path deltas, Path out, String format, Collection<Metric> columns) {
+		try (ResultSink sink = openSink(out, format, columns)) {
+			ChangeSetAnalyzer.Report report = analyzer.analyze(repo, base,
+					head, baseline, baselineRoot, sink);
+			sink.flush();
+			if (deltas != null)
+				report.writeCsv(deltas);
+			ChangeSetAnalyzer.Totals before = report.getBefore();
+			ChangeSetAnalyzer.Totals after = report.getAfter();
+			System.err.println(report.getDeltas().size() + " files changed"
+					+ " between " + base + " and " + head);
+			System.err.println("  files:        " + before.getNumberOfFiles()
+					+ " -> " + after.getNumberOfFiles());
+			System.err.println("  nodes:        " + before.getNumberOfNodes()
+					+ " -> " + after.getNumberOfNodes() + " ("
+					+ signed(after.getNumberOfNodes()
+							- before.getNumberOfNodes()) + ")");
+			System.err.println("  method calls: "
+					+ before.getNumberOfMethodCalls() + " -> "
+					+ after.getNumberOfMethodCalls() + " ("
+					+ signed(after.getNumberOfMethodCalls()
+							- before.getNumberOfMethodCalls()) + ")");
+			return EXIT_OK;
+		} catch (IOException | RuntimeException ex) {
+			ex.printStackTrace();
+			return EXIT_FAILED;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return EXIT_FAILED;
+		}
+	}// end runChangeSet(ChangeSetAnalyzer analyzer, Path repo, ...)
+
+	// ---
+	// The sink for the results, on standard output when there is no file,
+	// with a column for each of the further metrics
+	// ---
+	private static ResultSink openSink(Path out, String format,
+			Collection<Metric> columns) throws IOException {
+		return out == null ? ChannelSink.create(
+				Channels.newChannel(System.out), false,
+				format == null ? "jsonl" : format, columns) : ChannelSink.open(
+				out, format, columns);
+	}
+
+	// ---
+	// The metrics of a -metrics value, by the names of their columns.
+	// Only those with a plug-in in the standard MetricRegistry can be
+	// computed per unit.
+	// ---
+	private static Set<Metric> parseMetrics(String names) {
+		Set<Metric> metrics = EnumSet.noneOf(Metric.class);
+		MetricRegistry registry = MetricRegistry.standard();
+		for (String name : names.split(",")) {
+			Metric metric;
+			try {
+				metric = Metric.valueOf(name.trim().toUpperCase(Locale.ROOT));
+			} catch (IllegalArgumentException ex) {
+				throw new IllegalArgumentException("Unknown metric " + name);
+			}
+			if (!registry.isRegistered(metric))
+				throw new IllegalArgumentException(name
+						+ " is not a metric of a single unit");
+			metrics.add(metric);
+		}
+		return metrics;
+	}// end parseMetrics(String names)
+
+	private static String signed(long value) {
+		return value > 0 ? "+" + value : String.valueOf(value);
+	}
+
+	private static int runWorker(HeadlessAnalyzer analyzer, List<Path> sources) {
+		try {
+			new ShardWorker(analyzer, sources).serve();
+			return EXIT_OK;
+		} catch (IOException | RuntimeException ex) {
+			ex.printStackTrace();
+			return EXIT_FAILED;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return EXIT_FAILED;
+		}
+	}
+
+	// ---
+	// Writes the stats to the file named by the dump property, with the
+	// suffix appended, if the property is set
+	// ---
+	private static void dumpStats(String suffix) {
+		String dump = System.getProperty(AnalysisStats.DUMP_PROPERTY);
+		if (dump == null)
+			return;
+		try {
+			AnalysisStats.get().dump(Paths.get(dump + suffix));
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	// the pid of this JVM, from the name of its runtime, pid@host
+	private static String processId() {
+		String name = ManagementFactory.getRuntimeMXBean().getName();
+		int at = name.indexOf('@');
+		return at > 0 ? name.substring(0, at) : name;
+	}
+
+	// ---
+	// Whether the workers can be started from the classpath of this JVM:
+	// it holds Main only if the system class loader loaded it, and not
+	// when an OSGi framework loaded it from the plug-in
+	// ---
+	private static boolean canStartWorkers() {
+		return Main.class.getClassLoader() == ClassLoader.getSystemClassLoader();
+	}
+
+	// ---
+	// The command that starts one worker: this JVM's java, asttrav.*
+	// system properties and classpath, the analysis arguments and a share
+	// of the processors unless -threads was given
+	// ---
+	static List<String> workerCommand(List<String> analysisArgs, int workers,
+			boolean threadsGiven, String workerHeap) {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java")
+				.toString());
+		if (workerHeap != null)
+			command.add("-Xmx" + workerHeap);
+		for (String name : System.getProperties().stringPropertyNames()) {
+			if (name.startsWith("asttrav."))
+				command.add("-D" + name + "=" + System.getProperty(name));
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(Main.class.getName());
+		command.add("-worker");
+		command.addAll(analysisArgs);
+		if (!threadsGiven) {
+			int share = Runtime.getRuntime().availableProcessors() / workers;
+			command.add("-threads");
+			command.add(String.valueOf(Math.max(1, share)));
+		}
+		return command;
+	}// end workerCommand(List<String> analysisArgs, int workers, ...)
+
+	private static String value(String[] args, int i, String name) {
+		if (i >= args.length)
+			throw new IllegalArgumentException(name + " needs a value");
+		return args[i];
+	}
+
+}// end Main
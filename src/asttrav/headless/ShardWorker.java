@@ -0,0 +1,98 @@
+package asttrav.headless;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import asttrav.results.ChannelSink;
+
+// ---
+// The worker end of a ShardedAnalyzer, what Main -worker runs. It says
+// READY on its standard output once it is set up, then reads one request
+// per line from its standard input
+//
+//   <shard id> TAB <file listing the sources, one per line> TAB <out file>
+//
+// analyses the listed files, writes their results as JSON Lines to the
+// out file and answers
+//
+//   ok TAB <shard id> TAB <files> TAB <nodes> TAB <calls>
+//   failed TAB <shard id> TAB <message>
+//
+// The out file is written under another name and moved into place, so it
+// is either complete or missing. The worker ends when its input does;
+// errors such as running out of memory end it as well, and it is left to
+// the coordinator to start another.
+// ---
+public class ShardWorker {
+	public static final String READY = "ready";
+
+	private final HeadlessAnalyzer analyzer;
+	private final List<Path> sourceDirs;
+
+	public ShardWorker(HeadlessAnalyzer analyzer, List<Path> sourceDirs) {
+		this.analyzer = analyzer;
+		this.sourceDirs = sourceDirs;
+	}
+
+	// ---
+	// Serves requests from standard input until it is closed
+	// ---
+	public void serve() throws IOException, InterruptedException {
+		// nothing but answers may go to standard output
+		PrintStream out = new PrintStream(System.out, true, "UTF-8");
+		System.setOut(System.err);
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				System.in, StandardCharsets.UTF_8));
+		out.println(READY);
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (line.isEmpty())
+				continue;
+			String[] request = line.split("\t", -1);
+			if (request.length != 3) {
+				out.println("failed\t?\tBad request " + line);
+				continue;
+			}
+			out.println(run(request[0], Paths.get(request[1]),
+					Paths.get(request[2])));
+		}
+	}// end serve()
+
+	// analyses one shard and returns the answer to it
+	private String run(String id, Path list, Path target)
+			throws InterruptedException {
+		Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+		try {
+			List<String> files = Files.readAllLines(list,
+					StandardCharsets.UTF_8);
+			HeadlessAnalyzer.Totals totals;
+			try (ChannelSink sink = ChannelSink.open(tmp, "jsonl")) {
+				totals = analyzer.analyze(files, sourceDirs, sink);
+			}
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			return "ok\t" + id + "\t" + totals.getNumberOfFiles() + "\t"
+					+ totals.getNumberOfNodes() + "\t"
+					+ totals.getNumberOfMethodCalls();
+		} catch (IOException | RuntimeException ex) {
+			ex.printStackTrace();
+			try {
+				Files.deleteIfExists(tmp);
+			} catch (IOException e) {
+				// the coordinator removes its work directory
+			}
+			String message = String.valueOf(ex.getMessage());
+			return "failed\t" + id + "\t"
+					+ message.replace('\t', ' ').replace('\n', ' ');
+		}
+	}// end run(String id, Path list, Path target)
+
+}// end ShardWorker
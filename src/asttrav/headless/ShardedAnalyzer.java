@@ -0,0 +1,448 @@
+package asttrav.headless;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import asttrav.results.JsonLinesReader;
+import asttrav.results.ResultSink;
+
+// ---
+// Runs the headless analysis in several worker JVMs, so no single heap
+// has to hold the work of the whole job and the pauses of one collector
+// only stop one share of it. The coordinator
+//
+// - lists the .java files and orders them largest first;
+// - hands them out in shards, one at a time, to whichever worker asks
+//   next. A shard is a share of what is left, so shards start large and
+//   get smaller towards the end of the job, and a slow worker is never
+//   holding more than a small part of the last files while the others
+//   wait;
+// - replays the partial file of every shard a worker finishes into the
+//   sink, as soon as it is finished.
+//
+// A worker is a JVM running Main -worker, which reads shard requests from
+// its standard input and answers on its standard output; see ShardWorker.
+// A worker that dies, answers garbage or runs past the shard timeout is
+// killed and started again, and its shard goes back to the front of the
+// queue. A shard that keeps failing is split in two so the one file that
+// breaks the parser is found and left out instead of failing the job. The
+// job does fail when workers cannot be started at all, that is when one
+// does not report it is ready several times in a row.
+// ---
+public class ShardedAnalyzer {
+	// the bounds of a shard, in files
+	private static final int MIN_SHARD = 16;
+	private static final int MAX_SHARD = 512;
+	// the tries a shard gets before it is split
+	private static final int MAX_ATTEMPTS = 3;
+
+	// the seconds a worker may spend on one shard, 600 if absent
+	public static final String SHARD_TIMEOUT_PROPERTY = "asttrav.shardTimeout";
+
+	private final List<String> workerCommand;
+	private final int workers;
+	private final long shardTimeout;
+
+	// ---
+	// The command starts one worker, see Main.workerCommand
+	// ---
+	public ShardedAnalyzer(List<String> workerCommand, int workers) {
+		if (workers < 1)
+			throw new IllegalArgumentException("workers must be positive");
+		this.workerCommand = new ArrayList<>(workerCommand);
+		this.workers = workers;
+		this.shardTimeout = TimeUnit.SECONDS.toMillis(Long.getLong(
+				SHARD_TIMEOUT_PROPERTY, 600));
+	}
+
+	// ---
+	// Analyses every .java file below the source directories in the
+	// workers and writes the results of each shard to the sink once the
+	// shard is done. The files that could not be analysed are in the
+	// returned totals; the job only fails as a whole when the sink fails
+	// or no worker can be started.
+	// ---
+	public Totals analyze(List<Path> sourceDirs, ResultSink sink)
+			throws IOException, InterruptedException {
+		List<String> files = largestFirst(HeadlessAnalyzer
+				.findSources(sourceDirs));
+		Path workDir = Files.createTempDirectory("asttrav-shards");
+		ShardQueue queue = new ShardQueue(files, workers);
+		Totals totals = new Totals();
+		ScheduledExecutorService watchdog = Executors
+				.newSingleThreadScheduledExecutor();
+		List<Thread> threads = new ArrayList<>();
+		try {
+			for (int i = 0; i < workers; i++) {
+				Thread thread = new Thread(new WorkerLoop(queue, sink,
+						totals, workDir, watchdog), "asttrav-shard-worker-"
+						+ i);
+				thread.setDaemon(true);
+				threads.add(thread);
+				thread.start();
+			}
+			for (Thread thread : threads)
+				thread.join();
+		} catch (InterruptedException ex) {
+			queue.abort(new IOException("Interrupted"));
+			for (Thread thread : threads)
+				thread.interrupt();
+			throw ex;
+		} finally {
+			watchdog.shutdownNow();
+			deleteDirectory(workDir);
+		}
+		if (queue.failure != null)
+			throw queue.failure;
+		return totals;
+	}// end analyze(List<Path> sourceDirs, ResultSink sink)
+
+	// the files ordered by size, largest first, so no big file comes last
+	private static List<String> largestFirst(List<String> files)
+			throws IOException {
+		final Map<String, Long> sizes = new HashMap<>(files.size() * 2);
+		for (String file : files)
+			sizes.put(file, Files.size(Paths.get(file)));
+		List<String> sorted = new ArrayList<>(files);
+		Collections.sort(sorted,
+				(a, b) -> Long.compare(sizes.get(b), sizes.get(a)));
+		return sorted;
+	}
+
+	private static void deleteDirectory(Path dir) {
+		try (Stream<Path> list = Files.list(dir)) {
+			list.forEach(p -> p.toFile().delete());
+		} catch (IOException ex) {
+			// the temporary directory is only left behind
+		}
+		dir.toFile().delete();
+	}
+
+	// ---
+	// A share of the files and how often it was tried
+	// ---
+	private static final class Shard {
+		final int id;
+		final List<String> files;
+		int attempts;
+
+		Shard(int id, List<String> files) {
+			this.id = id;
+			this.files = files;
+		}
+	}
+
+	// ---
+	// Cuts the files into shards on demand and keeps the failed ones for
+	// another try. next blocks while other shards are still running, since
+	// one of them may yet come back.
+	// ---
+	private static final class ShardQueue {
+		private final List<String> files;
+		private final int workers;
+		private final Deque<Shard> retries = new ArrayDeque<>();
+		private int next;
+		private int nextId;
+		private int running;
+		volatile IOException failure;
+
+		ShardQueue(List<String> files, int workers) {
+			this.files = files;
+			this.workers = workers;
+		}
+
+		// the next shard to run, or null when the job is over
+		synchronized Shard next() throws InterruptedException {
+			while (true) {
+				if (failure != null)
+					return null;
+				Shard shard = retries.poll();
+				if (shard == null && next < files.size()) {
+					int left = files.size() - next;
+					int size = Math.max(MIN_SHARD,
+							Math.min(MAX_SHARD, left / (2 * workers)));
+					size = Math.min(size, left);
+					shard = new Shard(nextId++, files.subList(next, next
+							+ size));
+					next += size;
+				}
+				if (shard != null) {
+					running++;
+					return shard;
+				}
+				if (running == 0)
+					return null;
+				wait();
+			}
+		}// end next()
+
+		synchronized void done(Shard shard) {
+			running--;
+			notifyAll();
+		}
+
+		// ---
+		// Puts a failed shard back, split in two once it has used up its
+		// tries. Returns false when it is a single file that has.
+		// ---
+		synchronized boolean retry(Shard shard) {
+			running--;
+			notifyAll();
+			if (++shard.attempts < MAX_ATTEMPTS) {
+				retries.addFirst(shard);
+				return true;
+			}
+			if (shard.files.size() == 1)
+				return false;
+			int half = shard.files.size() / 2;
+			retries.addFirst(new Shard(nextId++, shard.files.subList(half,
+					shard.files.size())));
+			retries.addFirst(new Shard(nextId++, shard.files.subList(0, half)));
+			return true;
+		}
+
+		synchronized void abort(IOException ex) {
+			if (failure == null)
+				failure = ex;
+			notifyAll();
+		}
+	}// end ShardQueue
+
+	// ---
+	// Keeps one worker JVM busy until the queue runs dry, starting it
+	// again whenever it had to be killed
+	// ---
+	private final class WorkerLoop implements Runnable {
+		private final ShardQueue queue;
+		private final ResultSink sink;
+		private final Totals totals;
+		private final Path workDir;
+		private final ScheduledExecutorService watchdog;
+		private Process process;
+		private Writer requests;
+		private BufferedReader replies;
+		// worker starts in a row that did not get as far as ready
+		private int failedStarts;
+
+		WorkerLoop(ShardQueue queue, ResultSink sink, Totals totals,
+				Path workDir, ScheduledExecutorService watchdog) {
+			this.queue = queue;
+			this.sink = sink;
+			this.totals = totals;
+			this.workDir = workDir;
+			this.watchdog = watchdog;
+		}
+
+		public void run() {
+			try {
+				Shard shard;
+				while ((shard = queue.next()) != null)
+					runShard(shard);
+			} catch (InterruptedException ex) {
+				// the job was given up
+			} catch (IOException ex) {
+				queue.abort(ex);
+			} catch (RuntimeException ex) {
+				// the shard is still counted as running, so the job cannot
+				// go on without this thread
+				queue.abort(new IOException("Worker loop failed: " + ex, ex));
+			} finally {
+				stopWorker();
+			}
+		}
+
+		private void runShard(Shard shard) throws IOException {
+			Path list = workDir.resolve("shard-" + shard.id + ".files");
+			Path out = workDir.resolve("shard-" + shard.id + ".jsonl");
+			Files.write(list, shard.files, StandardCharsets.UTF_8);
+			String[] reply = request(shard, list, out);
+			Files.deleteIfExists(list);
+			long[] counts = reply != null && "ok".equals(reply[0])
+					&& Files.exists(out) ? counts(reply) : null;
+			if (counts != null) {
+				// a failing sink fails the job, not the shard, and so does a
+				// file that breaks off: part of it may already be in the sink
+				JsonLinesReader.replay(out, sink);
+				Files.deleteIfExists(out);
+				totals.numFiles.add(counts[0]);
+				totals.numNodes.add(counts[1]);
+				totals.numCalls.add(counts[2]);
+				queue.done(shard);
+				return;
+			}
+			Files.deleteIfExists(out);
+			if (reply != null && "failed".equals(reply[0]))
+				System.err.println("Shard " + shard.id + " failed: "
+						+ (reply.length > 2 ? reply[2] : ""));
+			else if (reply != null)
+				System.err.println("Shard " + shard.id + ": bad reply "
+						+ String.join("\t", reply));
+			if (!queue.retry(shard)) {
+				System.err.println("Giving up on " + shard.files.get(0));
+				totals.addFailed(shard.files.get(0));
+			}
+		}// end runShard(Shard shard)
+
+		// ---
+		// The files, nodes and calls of an ok reply, or null when it does
+		// not have exactly those three counts, in which case the shard is
+		// tried again
+		// ---
+		private long[] counts(String[] reply) {
+			if (reply.length != 5)
+				return null;
+			long[] counts = new long[3];
+			try {
+				for (int i = 0; i < counts.length; i++) {
+					counts[i] = Long.parseLong(reply[i + 2]);
+					if (counts[i] < 0)
+						return null;
+				}
+			} catch (NumberFormatException ex) {
+				return null;
+			}
+			return counts;
+		}
+
+		// ---
+		// Sends the shard to the worker and returns its answer split at the
+		// tabs, or null when the worker died or ran out of time, in which
+		// case it has been killed
+		// ---
+		private String[] request(Shard shard, Path list, Path out)
+				throws IOException {
+			if (process == null)
+				startWorker();
+			if (process == null)
+				return null;
+			final Process current = process;
+			ScheduledFuture<?> timeout = watchdog.schedule(
+					() -> current.destroyForcibly(), shardTimeout,
+					TimeUnit.MILLISECONDS);
+			try {
+				requests.write(shard.id + "\t" + list + "\t" + out + "\n");
+				requests.flush();
+				String line = replies.readLine();
+				if (line != null) {
+					String[] reply = line.split("\t", -1);
+					if (reply.length > 1
+							&& String.valueOf(shard.id).equals(reply[1]))
+						return reply;
+				}
+			} catch (IOException ex) {
+				// the worker is gone, see below
+			} finally {
+				timeout.cancel(false);
+			}
+			System.err.println("Restarting worker after shard " + shard.id);
+			stopWorker();
+			return null;
+		}// end request(Shard shard, Path list, Path out)
+
+		// ---
+		// Starts a worker and waits for it to say it is ready. Leaves
+		// process null when it does not, and throws once that happened
+		// too often in a row.
+		// ---
+		private void startWorker() throws IOException {
+			ProcessBuilder builder = new ProcessBuilder(workerCommand);
+			builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+			process = builder.start();
+			requests = new OutputStreamWriter(process.getOutputStream(),
+					StandardCharsets.UTF_8);
+			replies = new BufferedReader(new InputStreamReader(
+					process.getInputStream(), StandardCharsets.UTF_8));
+			final Process current = process;
+			ScheduledFuture<?> timeout = watchdog.schedule(
+					() -> current.destroyForcibly(), shardTimeout,
+					TimeUnit.MILLISECONDS);
+			String line = null;
+			try {
+				line = replies.readLine();
+			} catch (IOException ex) {
+				// checked below
+			} finally {
+				timeout.cancel(false);
+			}
+			if (ShardWorker.READY.equals(line)) {
+				failedStarts = 0;
+				return;
+			}
+			stopWorker();
+			if (++failedStarts >= MAX_ATTEMPTS)
+				throw new IOException("Cannot start a worker: "
+						+ workerCommand);
+		}// end startWorker()
+
+		// closing its input ends a healthy worker; a stuck one is killed
+		private void stopWorker() {
+			if (process == null)
+				return;
+			try {
+				requests.close();
+			} catch (IOException ex) {
+				// it is going away anyway
+			}
+			try {
+				if (!process.waitFor(5, TimeUnit.SECONDS))
+					process.destroyForcibly();
+			} catch (InterruptedException ex) {
+				process.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
+			process = null;
+		}
+	}// end WorkerLoop
+
+	// ---
+	// The totals over all shards, and the files left out because they
+	// failed every time
+	// ---
+	public static class Totals {
+		private final LongAdder numFiles = new LongAdder();
+		private final LongAdder numNodes = new LongAdder();
+		private final LongAdder numCalls = new LongAdder();
+		private final List<String> failed = new ArrayList<>();
+
+		public long getNumberOfFiles() {
+			return numFiles.sum();
+		}
+
+		public long getNumberOfNodes() {
+			return numNodes.sum();
+		}
+
+		public long getNumberOfMethodCalls() {
+			return numCalls.sum();
+		}
+
+		public synchronized List<String> getFailedFiles() {
+			return new ArrayList<>(failed);
+		}
+
+		private synchronized void addFailed(String file) {
+			failed.add(file);
+		}
+	}// end Totals
+
+}// end ShardedAnalyzer
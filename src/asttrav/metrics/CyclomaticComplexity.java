@@ -0,0 +1,67 @@
+package asttrav.metrics;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.InfixExpression;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.SwitchCase;
+
+import asttrav.popup.actions.Metric;
+
+// ---
+// McCabe's cyclomatic complexity, summed over every method declaration
+// and lambda of the tree: one per body, plus one for every branch point
+// (if, loop, case other than default, catch, ?: and every && or ||).
+// Abstract, interface and native methods have no body and count nothing.
+// Branch points outside of any body, e.g. a ?: in a field initialiser,
+// are counted as well, so the sum is over the whole unit.
+// ---
+public final class CyclomaticComplexity extends MetricPlugin {
+	private static final int[] TYPES = { ASTNode.METHOD_DECLARATION,
+			ASTNode.LAMBDA_EXPRESSION, ASTNode.IF_STATEMENT,
+			ASTNode.FOR_STATEMENT, ASTNode.ENHANCED_FOR_STATEMENT,
+			ASTNode.WHILE_STATEMENT, ASTNode.DO_STATEMENT,
+			ASTNode.SWITCH_CASE, ASTNode.CATCH_CLAUSE,
+			ASTNode.CONDITIONAL_EXPRESSION, ASTNode.INFIX_EXPRESSION };
+
+	private long value;
+
+	public Metric getMetric() {
+		return Metric.CYCLOMATIC_COMPLEXITY;
+	}
+
+	public int[] getEnterTypes() {
+		return TYPES.clone();
+	}
+
+	public void enter(ASTNode node) {
+		switch (node.getNodeType()) {
+		case ASTNode.METHOD_DECLARATION:
+			if (((MethodDeclaration) node).getBody() != null)
+				this.value++;
+			break;
+		case ASTNode.SWITCH_CASE:
+			if (!((SwitchCase) node).isDefault())
+				this.value++;
+			break;
+		case ASTNode.INFIX_EXPRESSION:
+			InfixExpression infix = (InfixExpression) node;
+			InfixExpression.Operator op = infix.getOperator();
+			// a && b && c is one node with an extended operand
+			if (op == InfixExpression.Operator.CONDITIONAL_AND
+					|| op == InfixExpression.Operator.CONDITIONAL_OR)
+				this.value += 1 + infix.extendedOperands().size();
+			break;
+		default:
+			this.value++;
+		}
+	}
+
+	public void reset() {
+		this.value = 0;
+	}
+
+	public long getValue() {
+		return this.value;
+	}
+
+}// end CyclomaticComplexity
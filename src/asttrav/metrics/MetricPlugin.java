@@ -0,0 +1,44 @@
+package asttrav.metrics;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+
+import asttrav.popup.actions.Metric;
+
+// ---
+// One metric computed during a FusedVisitor traversal. A plug-in names
+// the node types it wants to see, by ASTNode.getNodeType, and is only
+// called for those: enter before a node's children are visited and exit
+// after. The traversal itself descends into every node, so a plug-in
+// that needs to ignore a subtree has to track that on its own.
+//
+// A plug-in instance belongs to one visitor and is used by one thread.
+// ---
+public abstract class MetricPlugin {
+	private static final int[] NONE = new int[0];
+
+	// the metric this plug-in computes
+	public abstract Metric getMetric();
+
+	// the node types enter is called for
+	public abstract int[] getEnterTypes();
+
+	// the node types exit is called for, none by default
+	public int[] getExitTypes() {
+		return NONE;
+	}
+
+	public abstract void enter(ASTNode node);
+
+	public void exit(ASTNode node) {
+		// nothing by default
+	}
+
+	// ---
+	// Clears the value so the plug-in can be used on another tree
+	// ---
+	public abstract void reset();
+
+	// the value of the metric over the trees visited since the last reset
+	public abstract long getValue();
+
+}// end MetricPlugin
@@ -0,0 +1,108 @@
+package asttrav.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+
+import asttrav.popup.actions.Metric;
+
+// ---
+// Knows which MetricPlugin computes which Metric and builds a FusedVisitor
+// for a set of metrics. Metrics without a plug-in, like CALL_GRAPH which
+// has a builder of its own, are left out of the visitor.
+// ---
+public class MetricRegistry {
+	private final Map<Metric, Supplier<MetricPlugin>> factories = new EnumMap<>(
+			Metric.class);
+
+	public MetricRegistry() {
+		super();
+	}
+
+	// ---
+	// A registry with the plug-ins for every metric of this plug-in that
+	// is computed from a single tree
+	// ---
+	public static MetricRegistry standard() {
+		MetricRegistry registry = new MetricRegistry();
+		registry.register(Metric.NODE_COUNT,
+				() -> new VisitorCount(Metric.NODE_COUNT));
+		registry.register(Metric.METHOD_CALL_COUNT,
+				() -> new VisitorCount(Metric.METHOD_CALL_COUNT));
+		registry.register(Metric.METHOD_DECLARATION_COUNT,
+				() -> new NodeTypeCount(Metric.METHOD_DECLARATION_COUNT,
+						ASTNode.METHOD_DECLARATION));
+		registry.register(Metric.CYCLOMATIC_COMPLEXITY,
+				CyclomaticComplexity::new);
+		registry.register(Metric.NESTING_DEPTH, NestingDepth::new);
+		registry.register(Metric.FIELD_ACCESS_COUNT,
+				() -> new NodeTypeCount(Metric.FIELD_ACCESS_COUNT,
+						ASTNode.FIELD_ACCESS, ASTNode.SUPER_FIELD_ACCESS));
+		registry.register(Metric.OBJECT_CREATION_COUNT,
+				() -> new NodeTypeCount(Metric.OBJECT_CREATION_COUNT,
+						ASTNode.CLASS_INSTANCE_CREATION));
+		registry.register(Metric.METHOD_REFERENCE_COUNT,
+				() -> new NodeTypeCount(Metric.METHOD_REFERENCE_COUNT,
+						ASTNode.CREATION_REFERENCE,
+						ASTNode.EXPRESSION_METHOD_REFERENCE,
+						ASTNode.SUPER_METHOD_REFERENCE,
+						ASTNode.TYPE_METHOD_REFERENCE));
+		return registry;
+	}// end standard()
+
+	// ---
+	// Makes the factory the source of plug-ins for the metric, replacing
+	// any earlier one
+	// ---
+	public void register(Metric metric, Supplier<MetricPlugin> factory) {
+		factories.put(metric, factory);
+	}
+
+	public boolean isRegistered(Metric metric) {
+		return factories.containsKey(metric);
+	}
+
+	// ---
+	// The given metrics that have a plug-in here, without the counts
+	// MyVisitor makes (nodes, calls, method references and object
+	// creations), which every analysis makes anyway
+	// ---
+	public Set<Metric> getExtraMetrics(Collection<Metric> metrics) {
+		Set<Metric> extra = EnumSet.noneOf(Metric.class);
+		for (Metric metric : metrics) {
+			if (isRegistered(metric) && !isVisitorCount(metric))
+				extra.add(metric);
+		}
+		return extra;
+	}
+
+	// true for the counts MyVisitor and CountingVisitor make
+	public static boolean isVisitorCount(Metric metric) {
+		return metric == Metric.NODE_COUNT
+				|| metric == Metric.METHOD_CALL_COUNT
+				|| metric == Metric.METHOD_REFERENCE_COUNT
+				|| metric == Metric.OBJECT_CREATION_COUNT;
+	}
+
+	// ---
+	// Returns a visitor with a new plug-in for every given metric that has
+	// one
+	// ---
+	public FusedVisitor newVisitor(Collection<Metric> metrics) {
+		List<MetricPlugin> plugins = new ArrayList<>(metrics.size());
+		for (Metric metric : metrics) {
+			Supplier<MetricPlugin> factory = factories.get(metric);
+			if (factory != null)
+				plugins.add(factory.get());
+		}
+		return new FusedVisitor(plugins);
+	}
+
+}// end MetricRegistry
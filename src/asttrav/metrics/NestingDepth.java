@@ -0,0 +1,51 @@
+package asttrav.metrics;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+
+import asttrav.popup.actions.Metric;
+
+// ---
+// The deepest nesting of control flow statements in the tree. An else if
+// chain nests one level per if, as it does in the AST.
+// ---
+public final class NestingDepth extends MetricPlugin {
+	private static final int[] TYPES = { ASTNode.IF_STATEMENT,
+			ASTNode.FOR_STATEMENT, ASTNode.ENHANCED_FOR_STATEMENT,
+			ASTNode.WHILE_STATEMENT, ASTNode.DO_STATEMENT,
+			ASTNode.SWITCH_STATEMENT, ASTNode.TRY_STATEMENT,
+			ASTNode.SYNCHRONIZED_STATEMENT };
+
+	private int depth;
+	private int maxDepth;
+
+	public Metric getMetric() {
+		return Metric.NESTING_DEPTH;
+	}
+
+	public int[] getEnterTypes() {
+		return TYPES.clone();
+	}
+
+	public int[] getExitTypes() {
+		return TYPES.clone();
+	}
+
+	public void enter(ASTNode node) {
+		if (++this.depth > this.maxDepth)
+			this.maxDepth = this.depth;
+	}
+
+	public void exit(ASTNode node) {
+		this.depth--;
+	}
+
+	public void reset() {
+		this.depth = 0;
+		this.maxDepth = 0;
+	}
+
+	public long getValue() {
+		return this.maxDepth;
+	}
+
+}// end NestingDepth
@@ -0,0 +1,40 @@
+package asttrav.metrics;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+
+import asttrav.popup.actions.Metric;
+
+// ---
+// Counts the nodes of a few types, wherever they are in the tree
+// ---
+public final class NodeTypeCount extends MetricPlugin {
+	private final Metric metric;
+	private final int[] types;
+	private long value;
+
+	public NodeTypeCount(Metric metric, int... types) {
+		this.metric = metric;
+		this.types = types.clone();
+	}
+
+	public Metric getMetric() {
+		return this.metric;
+	}
+
+	public int[] getEnterTypes() {
+		return this.types.clone();
+	}
+
+	public void enter(ASTNode node) {
+		this.value++;
+	}
+
+	public void reset() {
+		this.value = 0;
+	}
+
+	public long getValue() {
+		return this.value;
+	}
+
+}// end NodeTypeCount
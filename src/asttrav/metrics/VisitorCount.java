@@ -0,0 +1,79 @@
+package asttrav.metrics;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+
+import asttrav.popup.actions.CountingVisitor;
+import asttrav.popup.actions.Metric;
+
+// ---
+// The node count or the call count of MyVisitor as a plug-in. MyVisitor
+// does not descend into some node types (see CountingVisitor), which a
+// fused traversal cannot do for one metric alone, so this remembers the
+// root of the subtree MyVisitor would have skipped and ignores every node
+// until that root is left again.
+// ---
+public final class VisitorCount extends MetricPlugin {
+	private final Metric metric;
+	private final boolean calls;
+	private final int[] exitTypes;
+	// the node whose children MyVisitor would not visit, while inside it
+	private ASTNode pruned;
+	private long value;
+
+	// ---
+	// metric is NODE_COUNT or METHOD_CALL_COUNT
+	// ---
+	public VisitorCount(Metric metric) {
+		if (metric != Metric.NODE_COUNT && metric != Metric.METHOD_CALL_COUNT)
+			throw new IllegalArgumentException("Not a MyVisitor count: "
+					+ metric);
+		this.metric = metric;
+		this.calls = metric == Metric.METHOD_CALL_COUNT;
+		int[] all = FusedVisitor.allNodeTypes();
+		int n = 0;
+		int[] prunedTypes = new int[all.length];
+		for (int i = 0; i < all.length; i++) {
+			if (!CountingVisitor.descendsInto(all[i]))
+				prunedTypes[n++] = all[i];
+		}
+		this.exitTypes = new int[n];
+		System.arraycopy(prunedTypes, 0, this.exitTypes, 0, n);
+	}
+
+	public Metric getMetric() {
+		return this.metric;
+	}
+
+	public int[] getEnterTypes() {
+		return FusedVisitor.allNodeTypes();
+	}
+
+	public int[] getExitTypes() {
+		return this.exitTypes.clone();
+	}
+
+	public void enter(ASTNode node) {
+		if (this.pruned != null)
+			return;
+		int type = node.getNodeType();
+		if (!this.calls || CountingVisitor.isCall(type))
+			this.value++;
+		if (!CountingVisitor.descendsInto(type))
+			this.pruned = node;
+	}
+
+	public void exit(ASTNode node) {
+		if (node == this.pruned)
+			this.pruned = null;
+	}
+
+	public void reset() {
+		this.pruned = null;
+		this.value = 0;
+	}
+
+	public long getValue() {
+		return this.value;
+	}
+
+}// end VisitorCount
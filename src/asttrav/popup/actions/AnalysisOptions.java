@@ -0,0 +1,195 @@
+package asttrav.popup.actions;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
+
+// ---
+// How an ASTParser is set up for a given set of metrics. Resolving
+// bindings is by far the most expensive part of a parse, both in time and
+// in memory, yet the node and call counts of MyVisitor are purely
+// syntactic. The options therefore only turn bindings on when one of the
+// requested metrics needs them, skip method bodies when no metric looks
+// inside them, and never ask for statement recovery.
+//
+// They also carry the MemoryBudget that bounds how many ASTs the analysis
+// keeps alive at once, and the JLS level of the parser: AST.JLS8 unless
+// asked for another, up to whatever the JDT at hand supports (see
+// getLatestJlsLevel).
+// ---
+public class AnalysisOptions {
+	private final Set<Metric> metrics;
+	private final boolean resolveBindings;
+	private final boolean ignoreMethodBodies;
+	private final boolean statementsRecovery;
+	private final MemoryBudget memoryBudget;
+	private final int jlsLevel;
+
+	public AnalysisOptions(Collection<Metric> metrics) {
+		this.metrics = metrics.isEmpty() ? EnumSet.noneOf(Metric.class)
+				: EnumSet.copyOf(metrics);
+		boolean bindings = false;
+		boolean bodies = false;
+		for (Metric metric : this.metrics) {
+			bindings |= metric.needsBindings();
+			bodies |= metric.needsBodies();
+		}
+		this.resolveBindings = bindings;
+		this.ignoreMethodBodies = !bodies;
+		this.statementsRecovery = false;
+		this.memoryBudget = MemoryBudget.getDefault();
+		this.jlsLevel = AST.JLS8;
+	}
+
+	private AnalysisOptions(Set<Metric> metrics, boolean resolveBindings,
+			boolean ignoreMethodBodies, boolean statementsRecovery,
+			MemoryBudget memoryBudget, int jlsLevel) {
+		this.metrics = metrics;
+		this.resolveBindings = resolveBindings;
+		this.ignoreMethodBodies = ignoreMethodBodies;
+		this.statementsRecovery = statementsRecovery;
+		this.memoryBudget = memoryBudget;
+		this.jlsLevel = jlsLevel;
+	}
+
+	// ---
+	// Returns the options for the given metrics
+	// ---
+	public static AnalysisOptions forMetrics(Metric... metrics) {
+		return new AnalysisOptions(Arrays.asList(metrics));
+	}
+
+	// ---
+	// Returns the options for the counts MyVisitor produces
+	// ---
+	public static AnalysisOptions forVisitorCounts() {
+		return forMetrics(Metric.NODE_COUNT, Metric.METHOD_CALL_COUNT);
+	}
+
+	// ---
+	// Returns a copy of these options that resolves bindings even though
+	// none of the metrics needs them
+	// ---
+	public AnalysisOptions withBindings() {
+		return new AnalysisOptions(this.metrics, true,
+				this.ignoreMethodBodies, this.statementsRecovery,
+				this.memoryBudget, this.jlsLevel);
+	}
+
+	// ---
+	// Returns a copy of these options that throttles the ASTs in flight
+	// by the given budget instead of the shared one
+	// ---
+	public AnalysisOptions withMemoryBudget(MemoryBudget budget) {
+		return new AnalysisOptions(this.metrics, this.resolveBindings,
+				this.ignoreMethodBodies, this.statementsRecovery, budget,
+				this.jlsLevel);
+	}
+
+	// ---
+	// Returns a copy of these options that parses at the given JLS level,
+	// one of the AST.JLS* constants. Throws an IllegalArgumentException if
+	// the JDT at hand does not know it.
+	// ---
+	public AnalysisOptions withJlsLevel(int level) {
+		if (level < AST.JLS8 || level > getLatestJlsLevel())
+			throw new IllegalArgumentException("Unsupported JLS level "
+					+ level);
+		return new AnalysisOptions(this.metrics, this.resolveBindings,
+				this.ignoreMethodBodies, this.statementsRecovery,
+				this.memoryBudget, level);
+	}
+
+	// ---
+	// Returns the highest JLS level the running JDT supports. AST has had
+	// getJLSLatest since JDT 3.16; before that the highest JLS<n> constant
+	// is it. Both are looked up by reflection since the bundle is built
+	// against JDT 3.10, whose latest is JLS8.
+	// ---
+	public static int getLatestJlsLevel() {
+		try {
+			Method latest = AST.class.getMethod("getJLSLatest"); //$NON-NLS-1$
+			return ((Integer) latest.invoke(null)).intValue();
+		} catch (ReflectiveOperationException ex) {
+			// an older JDT
+		}
+		int level = AST.JLS8;
+		for (Field field : AST.class.getFields()) {
+			String name = field.getName();
+			if (!name.matches("JLS\\d+") || field.getType() != int.class) //$NON-NLS-1$
+				continue;
+			try {
+				level = Math.max(level, field.getInt(null));
+			} catch (IllegalAccessException ex) {
+				// public, cannot happen
+			}
+		}
+		return level;
+	}// end getLatestJlsLevel()
+
+	public Set<Metric> getMetrics() {
+		return EnumSet.copyOf(this.metrics);
+	}
+
+	public boolean resolveBindings() {
+		return this.resolveBindings;
+	}
+
+	public boolean ignoreMethodBodies() {
+		return this.ignoreMethodBodies;
+	}
+
+	public boolean statementsRecovery() {
+		return this.statementsRecovery;
+	}
+
+	public MemoryBudget getMemoryBudget() {
+		return this.memoryBudget;
+	}
+
+	public int getJlsLevel() {
+		return this.jlsLevel;
+	}
+
+	// ---
+	// Returns the default JavaCore options with the compliance, source and
+	// target levels of the JLS level, for parsers that have no project to
+	// take them from
+	// ---
+	public Map<String, String> getCompilerOptions() {
+		Map<String, String> options = JavaCore.getOptions();
+		JavaCore.setComplianceOptions(this.jlsLevel <= AST.JLS8 ? JavaCore.VERSION_1_8
+				: String.valueOf(this.jlsLevel), options);
+		return options;
+	}
+
+	// ---
+	// Returns a new parser configured for these options
+	// ---
+	public ASTParser newParser() {
+		ASTParser parser = ASTParser.newParser(this.jlsLevel);
+		configure(parser);
+		return parser;
+	}
+
+	// ---
+	// Applies these options to the given parser. The settings are reset
+	// by every createAST(s) call, so this has to be done before each one.
+	// ---
+	public void configure(ASTParser parser) {
+		parser.setKind(ASTParser.K_COMPILATION_UNIT);
+		parser.setResolveBindings(this.resolveBindings);
+		parser.setBindingsRecovery(false);
+		parser.setStatementsRecovery(this.statementsRecovery);
+		parser.setIgnoreMethodBodies(this.ignoreMethodBodies);
+	}
+
+}// end AnalysisOptions
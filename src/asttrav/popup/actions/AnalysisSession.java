@@ -0,0 +1,213 @@
+package asttrav.popup.actions;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.resources.ProjectScope;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences.IPreferenceChangeListener;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences.PreferenceChangeEvent;
+import org.eclipse.core.runtime.preferences.InstanceScope;
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.IElementChangedListener;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.ASTParser;
+
+// ---
+// State that outlives a single query and is shared by all of them; the
+// Activator owns one. It keeps
+//
+// - a small pool of parsers per JLS level, so a query takes a parser
+//   instead of making one;
+// - the effective compiler options of every project queried so far.
+//   ASTParser.setProject and setSource(ICompilationUnit) merge them from
+//   the workspace and project preferences on every call; a parse that
+//   needs no bindings is given the cached map and its source as chars,
+//   and never touches the project at all.
+//
+// A parse with bindings still goes through setProject, since JDT builds
+// the name environment inside createAST and has no API to hand one in.
+// The options of a project are dropped when its classpath changes or it
+// is closed or removed. JDT reports no delta for a change of the
+// compiler preferences alone, so the session also listens to the JDT
+// Core preferences: a change in the workspace drops every project, one in
+// a project's own settings drops that project.
+// ---
+public class AnalysisSession implements IElementChangedListener {
+	// parsers kept per JLS level; more are made when they are all in use
+	private static final int MAX_POOLED = 4;
+
+	private static final int CLASSPATH_FLAGS = IJavaElementDelta.F_CLASSPATH_CHANGED
+			| IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED
+			| IJavaElementDelta.F_CLOSED;
+
+	// the idle parsers by JLS level, guarded by itself
+	private final Map<Integer, Deque<ASTParser>> parsers = new HashMap<>();
+	// the compiler options by project handle
+	private final Map<String, Map<String, String>> projectOptions = new ConcurrentHashMap<>();
+	// the listeners on the JDT Core preferences of those projects
+	private final Map<String, ProjectPreferencesListener> projectListeners = new ConcurrentHashMap<>();
+	// drops everything when the workspace compiler preferences change
+	private final IPreferenceChangeListener workspaceListener = event -> invalidateAll();
+
+	public AnalysisSession() {
+		super();
+	}
+
+	// ---
+	// Starts following classpath and compiler preference changes
+	// ---
+	public void start() {
+		JavaCore.addElementChangedListener(this,
+				ElementChangedEvent.POST_CHANGE);
+		InstanceScope.INSTANCE.getNode(JavaCore.PLUGIN_ID)
+				.addPreferenceChangeListener(workspaceListener);
+	}
+
+	// ---
+	// Stops following classpath and compiler preference changes and
+	// drops everything
+	// ---
+	public void stop() {
+		JavaCore.removeElementChangedListener(this);
+		InstanceScope.INSTANCE.getNode(JavaCore.PLUGIN_ID)
+				.removePreferenceChangeListener(workspaceListener);
+		invalidateAll();
+		synchronized (parsers) {
+			parsers.clear();
+		}
+	}
+
+	// ---
+	// Returns a parser set up from the options for a unit of the project,
+	// see the class comment. Hand it back with releaseParser once
+	// createAST has returned. The project may be null.
+	// ---
+	public ASTParser acquireParser(AnalysisOptions options,
+			IJavaProject project) {
+		ASTParser parser = null;
+		synchronized (parsers) {
+			Deque<ASTParser> idle = parsers.get(options.getJlsLevel());
+			if (idle != null)
+				parser = idle.poll();
+		}
+		if (parser == null)
+			parser = options.newParser();
+		else
+			options.configure(parser);
+		if (project != null) {
+			if (options.resolveBindings())
+				parser.setProject(project);
+			else
+				parser.setCompilerOptions(getCompilerOptions(project));
+		}
+		return parser;
+	}// end acquireParser(AnalysisOptions options, IJavaProject project)
+
+	// ---
+	// Puts a parser back in the pool. createAST has already reset it to
+	// its defaults, so the next acquireParser configures it from scratch.
+	// ---
+	public void releaseParser(AnalysisOptions options, ASTParser parser) {
+		synchronized (parsers) {
+			Deque<ASTParser> idle = parsers.get(options.getJlsLevel());
+			if (idle == null) {
+				idle = new ArrayDeque<>(MAX_POOLED);
+				parsers.put(options.getJlsLevel(), idle);
+			}
+			if (idle.size() < MAX_POOLED)
+				idle.push(parser);
+		}
+	}
+
+	// ---
+	// Returns the effective compiler options of the project, without the
+	// task tags the parser does not need. The map must not be changed.
+	// ---
+	public Map<String, String> getCompilerOptions(IJavaProject project) {
+		return projectOptions.computeIfAbsent(project.getHandleIdentifier(),
+				handle -> {
+					projectListeners.computeIfAbsent(handle,
+							key -> new ProjectPreferencesListener(project));
+					Map<String, String> options = project.getOptions(true);
+					options.remove(JavaCore.COMPILER_TASK_TAGS);
+					return options;
+				});
+	}
+
+	// ---
+	// Drops what is known about the project
+	// ---
+	public void invalidate(IJavaProject project) {
+		invalidate(project.getHandleIdentifier());
+	}
+
+	public void invalidateAll() {
+		for (String handle : projectListeners.keySet())
+			invalidate(handle);
+		projectOptions.clear();
+	}
+
+	private void invalidate(String handle) {
+		ProjectPreferencesListener listener = projectListeners.remove(handle);
+		if (listener != null)
+			listener.dispose();
+		projectOptions.remove(handle);
+	}
+
+	// ---
+	// Drops the projects whose classpath changed or that went away
+	// ---
+	public void elementChanged(ElementChangedEvent event) {
+		if (projectOptions.isEmpty())
+			return;
+		IJavaElementDelta delta = event.getDelta();
+		if (delta.getElement().getElementType() != IJavaElement.JAVA_MODEL)
+			return;
+		IJavaElementDelta[] projects = delta.getAffectedChildren();
+		for (int i = 0; i < projects.length; i++) {
+			IJavaElement element = projects[i].getElement();
+			if (element.getElementType() != IJavaElement.JAVA_PROJECT)
+				continue;
+			if (projects[i].getKind() != IJavaElementDelta.CHANGED
+					|| (projects[i].getFlags() & CLASSPATH_FLAGS) != 0)
+				invalidate((IJavaProject) element);
+		}
+	}// end elementChanged(ElementChangedEvent event)
+
+	// ---
+	// Drops a project when the JDT Core settings of the project itself
+	// change, e.g. its compliance level on the Java Compiler property page
+	// ---
+	private final class ProjectPreferencesListener implements
+			IPreferenceChangeListener {
+		private final String handle;
+		private final IEclipsePreferences node;
+
+		ProjectPreferencesListener(IJavaProject project) {
+			this.handle = project.getHandleIdentifier();
+			this.node = new ProjectScope(project.getProject())
+					.getNode(JavaCore.PLUGIN_ID);
+			this.node.addPreferenceChangeListener(this);
+		}
+
+		public void preferenceChange(PreferenceChangeEvent event) {
+			invalidate(handle);
+		}
+
+		void dispose() {
+			try {
+				node.removePreferenceChangeListener(this);
+			} catch (IllegalStateException ex) {
+				// the node went away with its project
+			}
+		}
+	}// end ProjectPreferencesListener
+
+}// end AnalysisSession
@@ -0,0 +1,137 @@
+package asttrav.popup.actions;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+
+// ---
+// Counts nodes and method calls exactly like MyVisitor, but without its
+// type specific visit overrides. Every decision MyVisitor makes in one of
+// its visit(T) methods (descend into the children or not, count a call or
+// not) is stored in a table indexed by ASTNode.getNodeType(), and all of
+// it happens in preVisit2, which ASTNode.accept calls for every node. When
+// preVisit2 returns false the node's visit(T) and its children are skipped,
+// which is what MyVisitor's "return false" does; otherwise the inherited
+// ASTVisitor.visit(T) returns true. That leaves a single small method on
+// the hot path instead of ~90 overrides the JIT has to dispatch between.
+//
+// Keep the tables in step with MyVisitor.
+// ---
+public final class CountingVisitor extends ASTVisitor {
+	// large enough for every node type up to the latest JLS and then some
+	private static final int TABLE_SIZE = 128;
+
+	// DESCEND[t] is false for the node types whose children MyVisitor prunes
+	private static final boolean[] DESCEND = new boolean[TABLE_SIZE];
+	// CALL[t] is true for the node types MyVisitor counts as method calls
+	private static final boolean[] CALL = new boolean[TABLE_SIZE];
+	// REFERENCE[t] is true for the method and constructor reference types
+	private static final boolean[] REFERENCE = new boolean[TABLE_SIZE];
+
+	static {
+		for (int i = 0; i < TABLE_SIZE; i++)
+			DESCEND[i] = true;
+		int[] pruned = { ASTNode.STRING_LITERAL, ASTNode.PRIMITIVE_TYPE,
+				ASTNode.NULL_LITERAL, ASTNode.NUMBER_LITERAL,
+				ASTNode.PACKAGE_DECLARATION, ASTNode.BLOCK_COMMENT,
+				ASTNode.IMPORT_DECLARATION, ASTNode.EMPTY_STATEMENT,
+				ASTNode.TAG_ELEMENT, ASTNode.TEXT_ELEMENT,
+				ASTNode.BOOLEAN_LITERAL, ASTNode.BREAK_STATEMENT,
+				ASTNode.CONTINUE_STATEMENT, ASTNode.MODIFIER, ASTNode.JAVADOC,
+				ASTNode.CHARACTER_LITERAL, ASTNode.LINE_COMMENT,
+				ASTNode.METHOD_REF, ASTNode.METHOD_REF_PARAMETER,
+				ASTNode.MEMBER_REF };
+		for (int i = 0; i < pruned.length; i++)
+			DESCEND[pruned[i]] = false;
+		CALL[ASTNode.METHOD_INVOCATION] = true;
+		CALL[ASTNode.SUPER_METHOD_INVOCATION] = true;
+		CALL[ASTNode.CONSTRUCTOR_INVOCATION] = true;
+		CALL[ASTNode.SUPER_CONSTRUCTOR_INVOCATION] = true;
+		REFERENCE[ASTNode.CREATION_REFERENCE] = true;
+		REFERENCE[ASTNode.EXPRESSION_METHOD_REFERENCE] = true;
+		REFERENCE[ASTNode.SUPER_METHOD_REFERENCE] = true;
+		REFERENCE[ASTNode.TYPE_METHOD_REFERENCE] = true;
+	}
+
+	private int numCalls = 0;
+	private int numNodes = 0;
+	private int numReferences = 0;
+	private int numCreations = 0;
+
+	public CountingVisitor() {
+		super();
+	}
+
+	// ---
+	// This returns the number of nodes that was encountered by
+	// this visitor
+	// ---
+	public int getNumberOfNodes() {
+		return this.numNodes;
+	}
+
+	// ---
+	// This returns the number of method invocations
+	// counted by this visitor
+	// ----
+	public int getNumberOfMethodCalls() {
+		return this.numCalls;
+	}
+
+	// ---
+	// This returns the number of method and constructor references
+	// counted by this visitor
+	// ---
+	public int getNumberOfMethodReferences() {
+		return this.numReferences;
+	}
+
+	// ---
+	// This returns the number of class instance creations counted by
+	// this visitor
+	// ---
+	public int getNumberOfObjectCreations() {
+		return this.numCreations;
+	}
+
+	// ---
+	// True if MyVisitor descends into the children of nodes of the given
+	// type, see ASTNode.getNodeType
+	// ---
+	public static boolean descendsInto(int nodeType) {
+		return nodeType >= TABLE_SIZE || DESCEND[nodeType];
+	}
+
+	// ---
+	// True if MyVisitor counts nodes of the given type as method calls
+	// ---
+	public static boolean isCall(int nodeType) {
+		return nodeType < TABLE_SIZE && CALL[nodeType];
+	}
+
+	// clears the counts so the visitor can be used on another tree
+	public void reset() {
+		this.numCalls = 0;
+		this.numNodes = 0;
+		this.numReferences = 0;
+		this.numCreations = 0;
+	}
+
+	// ---
+	// The whole visitor: every node reached is counted once, here rather
+	// than in postVisit, and the tables decide the rest
+	// ---
+	public boolean preVisit2(ASTNode node) {
+		int type = node.getNodeType();
+		this.numNodes++;
+		if (type >= TABLE_SIZE)
+			return true;
+		if (CALL[type])
+			this.numCalls++;
+		else if (REFERENCE[type])
+			this.numReferences++;
+		else if (type == ASTNode.CLASS_INSTANCE_CREATION)
+			this.numCreations++;
+		return DESCEND[type];
+	}
+
+}// end CountingVisitor
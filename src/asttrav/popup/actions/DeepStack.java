@@ -0,0 +1,111 @@
+package asttrav.popup.actions;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// ---
+// Runs parses on threads with a large stack. IterativeWalker keeps our
+// own walks off the Java stack, but ASTParser.createAST converts the
+// compiler's tree into DOM nodes recursively, and resolving bindings
+// recurses as well, so a generated file with an expression nested tens of
+// thousands deep overflows the default stack of a thread before there is
+// a tree to walk. The stack size is only reserved up front; a thread
+// commits as much of it as its deepest file needs.
+//
+// -Dasttrav.stackSize=<bytes> sets the size, 512m if absent.
+// ---
+public final class DeepStack {
+	public static final long STACK_SIZE = Long.getLong("asttrav.stackSize", //$NON-NLS-1$
+			512L << 20);
+
+	private static final AtomicInteger count = new AtomicInteger();
+
+	private DeepStack() {
+	}
+
+	// ---
+	// A daemon thread with the large stack
+	// ---
+	public static Thread newThread(Runnable task, String name) {
+		Thread thread = new DeepThread(task, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	// ---
+	// Makes the threads of a pool, named prefix 0, prefix 1, ...
+	// ---
+	public static ThreadFactory threadFactory(final String prefix) {
+		final AtomicInteger next = new AtomicInteger();
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				return DeepStack.newThread(r, prefix + next.getAndIncrement());
+			}
+		};
+	}
+
+	// ---
+	// Runs the task on a thread with the large stack and waits for it,
+	// right here if this already is one. What the task throws is thrown
+	// again in this thread.
+	// ---
+	public static <T> T call(final Supplier<T> task) {
+		if (Thread.currentThread() instanceof DeepThread)
+			return task.get();
+		final Object[] result = new Object[1];
+		final Throwable[] failure = new Throwable[1];
+		Thread thread = newThread(new Runnable() {
+			public void run() {
+				try {
+					result[0] = task.get();
+				} catch (Throwable ex) {
+					failure[0] = ex;
+				}
+			}
+		}, "Deep AST work " + count.getAndIncrement()); //$NON-NLS-1$
+		thread.start();
+		join(thread);
+		if (failure[0] instanceof RuntimeException)
+			throw (RuntimeException) failure[0];
+		if (failure[0] instanceof Error)
+			throw (Error) failure[0];
+		@SuppressWarnings("unchecked")
+		T value = (T) result[0];
+		return value;
+	}// end call(Supplier<T> task)
+
+	public static void run(final Runnable task) {
+		call(new Supplier<Void>() {
+			public Void get() {
+				task.run();
+				return null;
+			}
+		});
+	}
+
+	// ---
+	// Waits for the thread to end. An interrupt does not stop the wait,
+	// the task holds the caller's tree and budget; it is kept for later.
+	// ---
+	private static void join(Thread thread) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				thread.join();
+				break;
+			} catch (InterruptedException ex) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private static final class DeepThread extends Thread {
+		DeepThread(Runnable task, String name) {
+			super(null, task, name, STACK_SIZE);
+		}
+	}
+
+}// end DeepStack
@@ -0,0 +1,322 @@
+package asttrav.popup.actions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IElementChangedListener;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
+
+// ---
+// Keeps the workspace wide number of user defined methods and of method
+// calls up to date as the Java model changes. The totals are computed once
+// in full, after that every IJavaElementDelta only causes the compilation
+// units it names to be analysed again, so reading a total is O(1).
+//
+// The listener itself only records which elements changed; the analysis
+// happens in a system job so the thread that fires the delta is never
+// held up. Containers (projects, source folders and packages) that are
+// added, removed, opened, closed or whose classpath changed are rescanned
+// as a whole.
+// ---
+public class IncrementalMetrics implements IElementChangedListener {
+	// the delimiters that may follow a container handle in the handle of
+	// one of its children, see JavaElement.JEM_*
+	private static final String CHILD_DELIMITERS = "/<{"; //$NON-NLS-1$
+
+	private static final int CONTAINER_FLAGS = IJavaElementDelta.F_OPENED
+			| IJavaElementDelta.F_CLOSED
+			| IJavaElementDelta.F_CLASSPATH_CHANGED
+			| IJavaElementDelta.F_ADDED_TO_CLASSPATH
+			| IJavaElementDelta.F_REMOVED_FROM_CLASSPATH
+			| IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED;
+
+	private static final int UNIT_FLAGS = IJavaElementDelta.F_CONTENT
+			| IJavaElementDelta.F_PRIMARY_RESOURCE;
+
+	private final InfoGatherer gatherer;
+	private final MetricsCache cache;
+
+	// what every compilation unit contributes to the totals, by handle
+	private final Map<String, Contribution> contributions = new ConcurrentHashMap<>();
+	private final AtomicLong numMethods = new AtomicLong();
+	private final AtomicLong numCalls = new AtomicLong();
+	private volatile boolean ready;
+
+	// handles of the elements to analyse again, guarded by itself
+	private final Set<String> dirty = new LinkedHashSet<>();
+	private final Job job;
+
+	public IncrementalMetrics(MetricsCache cache) {
+		this.cache = cache;
+		this.gatherer = new InfoGatherer(AnalysisOptions.forVisitorCounts(),
+				cache);
+		this.job = new Job("Updating AST metrics") {
+			protected IStatus run(IProgressMonitor monitor) {
+				try {
+					if (!ready) {
+						computeAll(monitor);
+						ready = true;
+					}
+					processDirty(monitor);
+					return Status.OK_STATUS;
+				} catch (OperationCanceledException ex) {
+					return Status.CANCEL_STATUS;
+				}
+			}
+		};
+		this.job.setSystem(true);
+	}
+
+	// ---
+	// Registers the listener with JavaCore and computes the totals in the
+	// background
+	// ---
+	public void start() {
+		JavaCore.addElementChangedListener(this,
+				ElementChangedEvent.POST_CHANGE);
+		job.schedule();
+	}
+
+	// ---
+	// Unregisters the listener, stops any pending update and waits for a
+	// running one to finish, so the cache is left alone once this returns
+	// ---
+	public void stop() {
+		JavaCore.removeElementChangedListener(this);
+		job.cancel();
+		try {
+			job.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// true once the totals have been computed in full
+	public boolean isReady() {
+		return this.ready;
+	}
+
+	// the number of user defined methods in the workspace
+	public long getNumberOfUserMethods() {
+		return this.numMethods.get();
+	}
+
+	// the number of method calls made in the workspace
+	public long getNumberOfMethodCalls() {
+		return this.numCalls.get();
+	}
+
+	// ---
+	// Records the changed elements and wakes up the update job
+	// ---
+	public void elementChanged(ElementChangedEvent event) {
+		boolean changed;
+		synchronized (dirty) {
+			int before = dirty.size();
+			collect(event.getDelta());
+			changed = dirty.size() != before;
+		}
+		if (changed)
+			job.schedule();
+	}// end elementChanged(ElementChangedEvent event)
+
+	// walks the delta tree down to the elements that need analysing
+	private void collect(IJavaElementDelta delta) {
+		IJavaElement element = delta.getElement();
+		switch (element.getElementType()) {
+		case IJavaElement.JAVA_MODEL:
+			break;
+		case IJavaElement.JAVA_PROJECT:
+		case IJavaElement.PACKAGE_FRAGMENT_ROOT:
+		case IJavaElement.PACKAGE_FRAGMENT:
+			if (delta.getKind() != IJavaElementDelta.CHANGED
+					|| (delta.getFlags() & CONTAINER_FLAGS) != 0) {
+				dirty.add(element.getHandleIdentifier());
+				return;
+			}
+			break;
+		case IJavaElement.COMPILATION_UNIT:
+			ICompilationUnit unit = ((ICompilationUnit) element).getPrimary();
+			if (delta.getKind() != IJavaElementDelta.CHANGED
+					|| (delta.getFlags() & UNIT_FLAGS) != 0)
+				dirty.add(unit.getHandleIdentifier());
+			return;
+		default:
+			// nothing below a compilation unit matters here
+			return;
+		}
+		IJavaElementDelta[] children = delta.getAffectedChildren();
+		for (int i = 0; i < children.length; i++)
+			collect(children[i]);
+	}// end collect(IJavaElementDelta delta)
+
+	// ---
+	// Analyses every source compilation unit of the workspace. On a JVM
+	// with virtual threads the sources are loaded on those and parsed on
+	// a pool of their own, see PipelinedAnalyzer; otherwise every project
+	// is one createASTs batch.
+	// ---
+	private void computeAll(IProgressMonitor monitor) {
+		List<IJavaProject> projects = gatherer.getJavaProjects();
+		SubMonitor progress = SubMonitor.convert(monitor,
+				"Computing AST metrics", projects.size());
+		AnalysisOptions options = AnalysisOptions.forVisitorCounts();
+		ProjectAnalyzer analyzer = new ProjectAnalyzer(options, cache);
+		PipelinedAnalyzer pipeline = PipelinedAnalyzer.hasVirtualThreads() ? new PipelinedAnalyzer(
+				options, cache) : null;
+		for (IJavaProject project : projects) {
+			try {
+				ProjectAnalyzer.ProjectMetrics result = pipeline != null ? pipeline
+						.analyze(project, progress.newChild(1)) : analyzer
+						.analyze(project, progress.newChild(1));
+				for (UnitMetrics metrics : result.getUnits()) {
+					ICompilationUnit unit = (ICompilationUnit) JavaCore
+							.create(metrics.getHandle());
+					update(metrics.getHandle(), new Contribution(
+							ParallelMethodCounter.countUserMethods(unit, cache),
+							metrics.getNumberOfMethodCalls()));
+				}
+			} catch (JavaModelException ex) {
+				ex.printStackTrace();
+			}
+		}
+	}// end computeAll(IProgressMonitor monitor)
+
+	// ---
+	// Analyses the elements collected since the last run
+	// ---
+	private void processDirty(IProgressMonitor monitor) {
+		while (true) {
+			String handle;
+			synchronized (dirty) {
+				Iterator<String> it = dirty.iterator();
+				if (!it.hasNext())
+					return;
+				handle = it.next();
+				it.remove();
+			}
+			if (monitor.isCanceled())
+				throw new OperationCanceledException();
+			IJavaElement element = JavaCore.create(handle);
+			try {
+				if (element instanceof ICompilationUnit)
+					refreshUnit(handle, (ICompilationUnit) element, monitor);
+				else
+					refreshContainer(handle, element, monitor);
+			} catch (JavaModelException ex) {
+				ex.printStackTrace();
+			}
+		}
+	}// end processDirty(IProgressMonitor monitor)
+
+	private void refreshUnit(String handle, ICompilationUnit unit,
+			IProgressMonitor monitor) throws JavaModelException {
+		if (!unit.exists()) {
+			update(handle, null);
+			return;
+		}
+		int methods = ParallelMethodCounter.countUserMethods(unit, cache);
+		int calls = gatherer.analyzeUnit(unit, monitor)
+				.getNumberOfMethodCalls();
+		update(handle, new Contribution(methods, calls));
+	}// end refreshUnit(String handle, ICompilationUnit unit, IProgressMonitor monitor)
+
+	// ---
+	// Drops everything below the container and analyses what is still there
+	// ---
+	private void refreshContainer(String handle, IJavaElement element,
+			IProgressMonitor monitor) throws JavaModelException {
+		for (String unitHandle : contributions.keySet()) {
+			if (isChild(handle, unitHandle))
+				update(unitHandle, null);
+		}
+		if (element == null || !element.exists())
+			return;
+		ICompilationUnit[] units;
+		switch (element.getElementType()) {
+		case IJavaElement.JAVA_PROJECT:
+			IJavaProject project = (IJavaProject) element;
+			if (!project.getProject().isAccessible())
+				return;
+			units = ProjectAnalyzer.getSourceUnits(project);
+			break;
+		case IJavaElement.PACKAGE_FRAGMENT_ROOT:
+			IPackageFragmentRoot root = (IPackageFragmentRoot) element;
+			if (root.getKind() != IPackageFragmentRoot.K_SOURCE)
+				return;
+			List<ICompilationUnit> all = new ArrayList<>();
+			IJavaElement[] fragments = root.getChildren();
+			for (int i = 0; i < fragments.length; i++)
+				Collections.addAll(all,
+						((IPackageFragment) fragments[i]).getCompilationUnits());
+			units = all.toArray(new ICompilationUnit[all.size()]);
+			break;
+		case IJavaElement.PACKAGE_FRAGMENT:
+			IPackageFragment fragment = (IPackageFragment) element;
+			if (fragment.getKind() != IPackageFragmentRoot.K_SOURCE)
+				return;
+			units = fragment.getCompilationUnits();
+			break;
+		default:
+			return;
+		}
+		for (int i = 0; i < units.length; i++)
+			refreshUnit(units[i].getHandleIdentifier(), units[i], monitor);
+	}// end refreshContainer(String handle, IJavaElement element, IProgressMonitor monitor)
+
+	// true if the unit handle lies below the container handle
+	private static boolean isChild(String container, String unit) {
+		return unit.length() > container.length()
+				&& unit.startsWith(container)
+				&& CHILD_DELIMITERS.indexOf(unit.charAt(container.length())) >= 0;
+	}
+
+	// ---
+	// Replaces what a unit contributes to the totals; null removes it
+	// ---
+	private void update(String handle, Contribution contribution) {
+		Contribution old = contribution == null ? contributions.remove(handle)
+				: contributions.put(handle, contribution);
+		long methods = contribution == null ? 0 : contribution.methods;
+		long calls = contribution == null ? 0 : contribution.calls;
+		if (old != null) {
+			methods -= old.methods;
+			calls -= old.calls;
+		}
+		numMethods.addAndGet(methods);
+		numCalls.addAndGet(calls);
+	}// end update(String handle, Contribution contribution)
+
+	// what one compilation unit adds to the totals
+	private static final class Contribution {
+		final int methods;
+		final int calls;
+
+		Contribution(int methods, int calls) {
+			this.methods = methods;
+			this.calls = calls;
+		}
+	}
+
+}// end IncrementalMetrics
@@ -0,0 +1,143 @@
+package asttrav.popup.actions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.search.IJavaSearchConstants;
+import org.eclipse.jdt.core.search.IJavaSearchScope;
+import org.eclipse.jdt.core.search.SearchEngine;
+import org.eclipse.jdt.core.search.SearchMatch;
+import org.eclipse.jdt.core.search.SearchParticipant;
+import org.eclipse.jdt.core.search.SearchPattern;
+import org.eclipse.jdt.core.search.SearchRequestor;
+
+// ---
+// Counts the user defined methods of a set of Java projects from the JDT
+// search index instead of the Java model. One method and constructor
+// declaration search per project, over its source folders only, reports
+// every declaration as a match carrying a handle; no IType is opened and
+// no element info is built, so a cold workspace is not materialised just
+// to be counted.
+//
+// The count is the same as ParallelMethodCounter's: the methods and
+// constructors written in the source of top level and member types. The
+// index also reports the methods of local and anonymous types and the
+// lambda methods, and those are left out by looking at the handle alone.
+// ---
+public class IndexedMethodCounter {
+
+	public IndexedMethodCounter() {
+		super();
+	}
+
+	// ---
+	// Returns the number of user defined methods in the given projects.
+	// Waits for the indexer if it is still running. Throws an
+	// OperationCanceledException when the monitor is canceled; the
+	// monitor may be null.
+	// ---
+	public int count(List<IJavaProject> projects, IProgressMonitor monitor)
+			throws JavaModelException {
+		SubMonitor progress = SubMonitor.convert(monitor,
+				"Counting user defined methods", projects.size());
+		SearchPattern pattern = SearchPattern.createOrPattern(
+				SearchPattern.createPattern("*", IJavaSearchConstants.METHOD, //$NON-NLS-1$
+						IJavaSearchConstants.DECLARATIONS,
+						SearchPattern.R_PATTERN_MATCH),
+				SearchPattern.createPattern("*", //$NON-NLS-1$
+						IJavaSearchConstants.CONSTRUCTOR,
+						IJavaSearchConstants.DECLARATIONS,
+						SearchPattern.R_PATTERN_MATCH));
+		SearchParticipant[] participants = { SearchEngine
+				.getDefaultSearchParticipant() };
+		SearchEngine engine = new SearchEngine();
+		DeclarationCounter counter = new DeclarationCounter();
+		try {
+			for (IJavaProject project : projects) {
+				if (progress.isCanceled())
+					throw new OperationCanceledException();
+				IJavaSearchScope scope = getSourceScope(project);
+				if (scope != null)
+					engine.search(pattern, participants, scope, counter,
+							progress.newChild(1));
+				else
+					progress.worked(1);
+			}
+		} catch (CoreException ex) {
+			if (ex instanceof JavaModelException)
+				throw (JavaModelException) ex;
+			throw new JavaModelException(ex);
+		} finally {
+			if (monitor != null)
+				monitor.done();
+		}
+		return counter.count;
+	}// end count(List<IJavaProject> projects, IProgressMonitor monitor)
+
+	// ---
+	// A scope over the source folders of the project alone, so neither its
+	// libraries nor the projects it depends on are searched. Null if the
+	// project has no source folder.
+	// ---
+	private static IJavaSearchScope getSourceScope(IJavaProject project)
+			throws JavaModelException {
+		IPackageFragmentRoot[] roots = project.getPackageFragmentRoots();
+		List<IJavaElement> sources = new ArrayList<>(roots.length);
+		for (int i = 0; i < roots.length; i++) {
+			if (roots[i].getKind() == IPackageFragmentRoot.K_SOURCE
+					&& project.equals(roots[i].getJavaProject()))
+				sources.add(roots[i]);
+		}
+		if (sources.isEmpty())
+			return null;
+		return SearchEngine.createJavaSearchScope(
+				sources.toArray(new IJavaElement[sources.size()]),
+				IJavaSearchScope.SOURCES);
+	}// end getSourceScope(IJavaProject project)
+
+	// ---
+	// Counts the declarations that getAllTypes().getMethods() would see
+	// ---
+	private static final class DeclarationCounter extends SearchRequestor {
+		int count;
+
+		public void acceptSearchMatch(SearchMatch match) {
+			Object element = match.getElement();
+			if (!(element instanceof IMethod))
+				return;
+			IMethod method = (IMethod) element;
+			if (method.isBinary() || method.isLambdaMethod())
+				return;
+			if (isInMemberType(method))
+				count++;
+		}
+
+		// false if a method, field or initializer encloses the declaring
+		// type, i.e. the type is local or anonymous
+		private static boolean isInMemberType(IMethod method) {
+			IJavaElement parent = method.getParent();
+			while (parent != null
+					&& parent.getElementType() != IJavaElement.COMPILATION_UNIT) {
+				switch (parent.getElementType()) {
+				case IJavaElement.METHOD:
+				case IJavaElement.FIELD:
+				case IJavaElement.INITIALIZER:
+					return false;
+				default:
+					parent = parent.getParent();
+				}
+			}
+			return true;
+		}
+	}// end DeclarationCounter
+
+}// end IndexedMethodCounter
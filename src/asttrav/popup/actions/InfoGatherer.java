@@ -2,6 +2,7 @@ package asttrav.popup.actions;
 
 import java.util.ArrayList;
 import java.util.*;
+import java.util.function.IntSupplier;
 
 import org.eclipse.jdt.core.dom.*;
 import org.eclipse.core.resources.IProject;
@@ -11,18 +12,66 @@ import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.IMethod;
 import org.eclipse.jdt.core.IPackageFragment;
 import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.ISourceRange;
 import org.eclipse.jdt.core.IType;
 import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.core.runtime.*;
 
+import asttrav.Activator;
+import asttrav.callgraph.CallGraph;
+import asttrav.callgraph.CallGraphBuilder;
+import asttrav.metrics.FusedVisitor;
+import asttrav.metrics.MetricRegistry;
+import asttrav.results.ResultSink;
+import asttrav.stats.AnalysisStats;
+import asttrav.stats.Stage;
+
 public class InfoGatherer {
+	// decides how the parser is set up for the metrics we compute
+	private final AnalysisOptions options;
+	// the per unit metrics of earlier runs, may be null
+	private final MetricsCache cache;
+	// the parsers and project settings shared by all queries, may be null
+	private final AnalysisSession session;
+	// the plug-ins for the metrics beyond the MyVisitor counts
+	private final MetricRegistry registry = MetricRegistry.standard();
+
+	public InfoGatherer() {
+		this(AnalysisOptions.forVisitorCounts());
+	}
+
+	public InfoGatherer(AnalysisOptions options) {
+		this(options, Activator.getDefault() == null ? null : Activator
+				.getDefault().getMetricsCache(),
+				Activator.getDefault() == null ? null : Activator.getDefault()
+						.getAnalysisSession());
+	}
+
+	// the unit getNumberOfMethodCalls last looked at, and its counts
+	private String parsedHandle;
+	private UnitMetrics parsedMetrics;
+	private IntIntMap parsedCalls;
+	// whether the tree of the last traverse came from LiveAsts; its counts
+	// may include unsaved changes, so they must not go to the cache
+	private boolean traversedLive;
+
+	public InfoGatherer(AnalysisOptions options, MetricsCache cache) {
+		this(options, cache, null);
+	}
+
+	public InfoGatherer(AnalysisOptions options, MetricsCache cache,
+			AnalysisSession session) {
+		this.options = options;
+		this.cache = cache;
+		this.session = session;
+	}
 
 	// ---
-	// This method returns the number of user defined methods in the
-	// workspace on which this plug-in was invoked
+	// This method returns the accessible Java projects of the workspace on
+	// which this plug-in was invoked
 	// ---
-	public int getNumberOfUserMethods() {
-		int total = 0;
+	public List<IJavaProject> getJavaProjects() {
 		// ---
 		// This gets the list of projects in the "Package Explorer" frame in the
 		// instance of
@@ -54,6 +103,69 @@ public class InfoGatherer {
 				ex.printStackTrace();
 			}
 		}// ends for(int i = 0; i<projects.length; i++)
+		return javaprojects;
+	}// end getJavaProjects()
+
+	// ---
+	// This method returns the number of user defined methods in the
+	// workspace using one worker per processor. Projects and source
+	// package fragments are split into fork-join tasks; see
+	// ParallelMethodCounter.
+	// ---
+	public int getNumberOfUserMethodsInParallel(IProgressMonitor monitor) {
+		return new ParallelMethodCounter(cache).count(getJavaProjects(),
+				monitor);
+	}// end getNumberOfUserMethodsInParallel(IProgressMonitor monitor)
+
+	// ---
+	// This method returns the number of user defined methods in the
+	// workspace as the JDT search index knows them, without opening the
+	// types; see IndexedMethodCounter.
+	// ---
+	public int getNumberOfUserMethodsFromIndex(IProgressMonitor monitor)
+			throws JavaModelException {
+		return new IndexedMethodCounter().count(getJavaProjects(), monitor);
+	}// end getNumberOfUserMethodsFromIndex(IProgressMonitor monitor)
+
+	// ---
+	// This method returns the call graph of the source in the workspace,
+	// built with bindings in one batch parse per project. See
+	// CallGraphBuilder. The method keys go to the cache, which writes
+	// them to its index.
+	// ---
+	public CallGraph buildCallGraph(IProgressMonitor monitor)
+			throws JavaModelException {
+		CallGraph graph = new CallGraphBuilder().addProjects(getJavaProjects(),
+				monitor).build();
+		if (cache != null)
+			cache.setMethodKeys(graph.getMethods());
+		return graph;
+	}// end buildCallGraph(IProgressMonitor monitor)
+
+	// ---
+	// This method returns the number of user defined methods in the
+	// workspace on which this plug-in was invoked
+	// ---
+	public int getNumberOfUserMethods() {
+		return getNumberOfUserMethods(null);
+	}// end getNumberOfUserMethods()
+
+	// ---
+	// Same as above but reports its progress to the given monitor and
+	// stops with an OperationCanceledException as soon as the monitor is
+	// canceled. The monitor may be null.
+	// ---
+	public int getNumberOfUserMethods(IProgressMonitor monitor) {
+		return getNumberOfUserMethods(monitor, null);
+	}// end getNumberOfUserMethods(IProgressMonitor monitor)
+
+	// ---
+	// Same as above but also writes a record for every user defined
+	// method to the sink as it is found. The sink may be null.
+	// ---
+	public int getNumberOfUserMethods(IProgressMonitor monitor, ResultSink sink) {
+		int total = 0;
+		List<IJavaProject> javaprojects = getJavaProjects();
 
 		// ---
 		// Now that we have all the projects that we can access and that might
@@ -62,6 +174,8 @@ public class InfoGatherer {
 		// user
 		// defined methods.
 		// ---
+		SubMonitor progress = SubMonitor.convert(monitor,
+				"Counting user defined methods", javaprojects.size());
 		try {
 			for (int i = 0; i < javaprojects.size(); i++) {
 
@@ -82,6 +196,8 @@ public class InfoGatherer {
 				// ---
 				IPackageFragment[] pfrag = ((IJavaProject) javaprojects.get(i))
 						.getPackageFragments();
+				SubMonitor projectProgress = progress.newChild(1)
+						.setWorkRemaining(pfrag.length);
 
 				// ---
 				// now we iterator over the packages contained in the current
@@ -98,6 +214,7 @@ public class InfoGatherer {
 					// the package contained
 					// binary files (EX a package in the Java library).
 					// ---
+					SubMonitor fragmentProgress = projectProgress.newChild(1);
 					if (pfrag[k].getKind() != IPackageFragmentRoot.K_SOURCE)
 						continue;
 
@@ -109,12 +226,17 @@ public class InfoGatherer {
 					// unit (.java source file).
 					// ---
 					ICompilationUnit[] icu = pfrag[k].getCompilationUnits();
+					fragmentProgress.setWorkRemaining(icu.length);
 
 					// ---
 					// Now we iterate over all the .java files contained in this
 					// package
 					// ---
 					for (int y = 0; y < icu.length; y++) {
+						// stop as soon as the user cancels the job
+						if (fragmentProgress.isCanceled())
+							throw new OperationCanceledException();
+						fragmentProgress.worked(1);
 
 						// ---
 						// Each java file (compilationUnit) may define multiple
@@ -123,6 +245,7 @@ public class InfoGatherer {
 						// find the methods.
 						// From the types
 						// ---
+						long t = AnalysisStats.start();
 						IType[] allTypes = icu[y].getAllTypes();
 						for (int tc = 0; tc < allTypes.length; tc++) {
 
@@ -135,25 +258,34 @@ public class InfoGatherer {
 							// ----
 							// Here we iterate through the methods, we double
 							// check and make sure they
-							// are user defined print their name and increase
-							// our total
+							// are user defined, report them to the sink and
+							// increase our total
 							// ---
 							for (int mc = 0; mc < im.length; mc++) {
 
 								if (im[mc].isBinary())
 									continue;
-								System.out.println(im[mc].getElementName());
+								if (sink != null)
+									sink.method(icu[y].getHandleIdentifier(),
+											allTypes[tc].getFullyQualifiedName(),
+											im[mc].getElementName(), -1);
 								total++;
 							}// end for(int mc = 0; mc<im.length; mc++)
 						}// end for(int tc = 0; tc<allTypes.length; tc++)
+						AnalysisStats.stop(Stage.MODEL_WALK, t);
 					}// end for(int y = 0; y<icu.length; y++)
 				}// end for(int k = 0; k<pfrag.length; k++)
 			}// end for(int i=0; i<javaprojects.size(); i++)
+		} catch (OperationCanceledException ex) {
+			throw ex;
 		} catch (Exception ex) {
 			ex.printStackTrace();
+		} finally {
+			if (monitor != null)
+				monitor.done();
 		}
 		return total;
-	}// end getNumberOfUserMethods()
+	}// end getNumberOfUserMethods(IProgressMonitor monitor, ResultSink sink)
 
 	// ---
 	// This method takes an IMethod and returns the number of method
@@ -164,6 +296,14 @@ public class InfoGatherer {
 	// It also prints the number of nodes in the AST for the class.
 	// ---
 	public int getNumberOfMethodCalls(IMethod method) {
+		return getNumberOfMethodCalls(method, null);
+	}// end getNumberOfMethodCalls(IMethod method)
+
+	// ---
+	// Same as above but hands the given monitor to the parser so the
+	// parse can be canceled. The monitor may be null.
+	// ---
+	public int getNumberOfMethodCalls(IMethod method, IProgressMonitor monitor) {
 		// sanity check just ensures that method isn't null
 		if (method == null) {
 			System.out
@@ -171,29 +311,6 @@ public class InfoGatherer {
 			return -1;
 		}
 
-		// ---
-		// This is a Java language parser for creating abstract syntax trees
-		// (ASTs).
-		// The AST.JLS2 actual specifies that the parser will should work with
-		// JLS2 (J2SE 1.4)
-		// ---
-
-		ASTParser parser = ASTParser.newParser(AST.JLS8);
-
-		// ---
-		// If setResolveBindings(true), the various names and types appearing in
-		// the
-		// AST can be resolved to "bindings" by calling the resolveBinding
-		// methods.
-		// These bindings draw connections between the different parts of a
-		// program,
-		// and generally afford a more powerful vantage point for clients who
-		// wish
-		// to analyze a program's structure more deeply. However they are very
-		// expensive.
-		// ---
-		parser.setResolveBindings(true);
-
 		// ---
 		// Since the IMethod passed in is expected to be user defined we
 		// get the ICompilationUnit (.java) however this would work just as
@@ -209,26 +326,380 @@ public class InfoGatherer {
 			return -1;
 		}
 
-		// ---
-		// The source can be an IClassFile or an ICompilationUnit.
-		// ---
-		parser.setSource(icu);
-		// ---
-		// Creates an abstract syntax tree. We pass null for the progress
-		// monitor
-		// ---
-		ASTNode node = parser.createAST(null);
+		loadBreakdown(icu, monitor);
+		System.out.println("There were " + parsedMetrics.getNumberOfNodes()
+				+ " node in " + icu.getElementName());
+		return parsedMetrics.getNumberOfMethodCalls();
+
+	}// end getNumberOfMethodCalls(IMethod method, IProgressMonitor monitor)
+
+	// ---
+	// This method returns the MyVisitor counts of the compilation unit
+	// that declares the method, method references and object creations
+	// included, from the same parse as getNumberOfMethodCalls. Returns
+	// null if the method is not user defined. The monitor may be null.
+	// ---
+	public UnitMetrics getDeclaringUnitMetrics(IMethod method,
+			IProgressMonitor monitor) {
+		if (method == null || method.getCompilationUnit() == null)
+			return null;
+		loadBreakdown(method.getCompilationUnit(), monitor);
+		return parsedMetrics;
+	}// end getDeclaringUnitMetrics(IMethod method, IProgressMonitor monitor)
+
+	// ---
+	// This method takes an IMethod and returns the number of method
+	// calls made from that method alone. The calls of every method of the
+	// declaring class are counted in the same traversal that counts the
+	// calls of the whole class, so asking about the class and about any
+	// number of its methods costs a single parse. If the class has not
+	// been looked at yet, only the method itself is parsed and visited,
+	// see countCallsInMethod. The monitor may be null.
+	// ---
+	public int getNumberOfMethodCallsInMethod(IMethod method,
+			IProgressMonitor monitor) {
+		if (method == null || method.getCompilationUnit() == null)
+			return -1;
+		try {
+			ISourceRange range = method.getNameRange();
+			if (range == null || range.getOffset() < 0)
+				return -1;
+			ICompilationUnit icu = method.getCompilationUnit();
+			if (!icu.getHandleIdentifier().equals(parsedHandle)) {
+				MetricsCache.Entry cached = lookup(icu);
+				if (cached == null || !cached.hasMethodCallCounts())
+					return countCallsInMethod(method, monitor);
+			}
+			loadBreakdown(icu, monitor);
+			return parsedCalls.get(range.getOffset(), 0);
+		} catch (JavaModelException ex) {
+			ex.printStackTrace();
+			return -1;
+		}
+	}// end getNumberOfMethodCallsInMethod(IMethod method, IProgressMonitor monitor)
+
+	// ---
+	// This method counts the calls made from one method without looking
+	// at the rest of its file. The parser is given the method's name as
+	// its focal position, which makes it skip the statements of every
+	// other method body, and NodeFinder walks down to the declaration by
+	// source offsets only, skipping every subtree that does not contain
+	// it. A MethodCountingVisitor then walks the declaration and nothing
+	// else, so the cost is that of the method rather than that of the
+	// file. An AST the editor already has is searched the same way instead
+	// of parsing. Returns -1 if the declaration cannot be found.
+	// ---
+	public int countCallsInMethod(IMethod method, IProgressMonitor monitor)
+			throws JavaModelException {
+		ISourceRange name = method.getNameRange();
+		ICompilationUnit icu = method.getCompilationUnit();
+		if (icu == null || name == null || name.getOffset() < 0)
+			return -1;
+		CompilationUnit live = LiveAsts.find(icu, options.getJlsLevel(),
+				true, monitor);
+		MemoryBudget budget = options.getMemoryBudget();
+		budget.acquire(monitor);
+		try {
+			CompilationUnit ast = live;
+			if (ast == null) {
+				final ASTParser parser = acquireParser(icu.getJavaProject());
+				try {
+					setSource(parser, icu);
+					parser.setFocalPosition(name.getOffset());
+					long t = AnalysisStats.start();
+					// createAST recurses as deep as the file nests
+					ast = DeepStack.call(() -> (CompilationUnit) parser
+							.createAST(monitor));
+					AnalysisStats.stop(Stage.PARSE, t);
+				} finally {
+					releaseParser(parser);
+				}
+			}
+			long t = AnalysisStats.start();
+			ASTNode found = NodeFinder.perform(ast, name.getOffset(),
+					name.getLength());
+			while (found != null && !(found instanceof MethodDeclaration))
+				found = found.getParent();
+			if (found == null)
+				return -1;
+			MethodCountingVisitor visitor = new MethodCountingVisitor();
+			new IterativeWalker().walk(found, visitor);
+			AnalysisStats.stop(Stage.VISIT, t);
+			return visitor.getMethodCallCounts().get(name.getOffset(), 0);
+		} finally {
+			budget.release();
+		}
+	}// end countCallsInMethod(IMethod method, IProgressMonitor monitor)
+
+	// ---
+	// Makes parsedMetrics and parsedCalls describe the given unit, from
+	// the last unit we looked at, from the cache or from a walk with a
+	// MethodCountingVisitor, which makes MyVisitor's counts, in that order
+	// ---
+	private void loadBreakdown(ICompilationUnit icu, IProgressMonitor monitor) {
+		String handle = icu.getHandleIdentifier();
+		if (handle.equals(parsedHandle))
+			return;
+		MetricsCache.Entry cached = lookup(icu);
+		if (cached != null && cached.hasCounts()
+				&& cached.hasMethodCallCounts()) {
+			parsedMetrics = new UnitMetrics(handle, icu.getElementName(),
+					cached.getNumberOfNodes(), cached.getNumberOfMethodCalls(),
+					cached.getNumberOfMethodReferences(),
+					cached.getNumberOfObjectCreations());
+			parsedCalls = cached.getMethodCallCounts();
+			parsedHandle = handle;
+			return;
+		}
+
+		MethodCountingVisitor visitor = new MethodCountingVisitor();
+		traverse(icu, visitor, visitor::getNumberOfNodes, true, monitor);
+		if (storesCounts() && !traversedLive) {
+			try {
+				cache.storeCounts(icu, visitor.getNumberOfNodes(),
+						visitor.getNumberOfMethodCalls(),
+						visitor.getNumberOfMethodReferences(),
+						visitor.getNumberOfObjectCreations(),
+						visitor.getMethodCallCounts());
+			} catch (JavaModelException ex) {
+				ex.printStackTrace();
+			}
+		}
+		parsedMetrics = new UnitMetrics(handle, icu.getElementName(),
+				visitor.getNumberOfNodes(), visitor.getNumberOfMethodCalls(),
+				visitor.getNumberOfMethodReferences(),
+				visitor.getNumberOfObjectCreations());
+		parsedCalls = visitor.getMethodCallCounts();
+		parsedHandle = handle;
+	}// end loadBreakdown(ICompilationUnit icu, IProgressMonitor monitor)
+
+	// ---
+	// This method creates an Abstract Syntax Tree (AST) for the given
+	// compilation unit and returns the counts MyVisitor gathers from it:
+	// nodes, calls, method references and object creations. If the file
+	// has not changed since it was last parsed the counts come from the
+	// cache instead. The monitor may be null.
+	//
+	// When the options ask for further metrics with a plug-in, they are
+	// computed along with the counts in one traversal, see computeMetrics.
+	// The cache only holds the counts, so those units are always parsed.
+	// ---
+	public UnitMetrics analyzeUnit(ICompilationUnit icu, IProgressMonitor monitor) {
+		if (!registry.getExtraMetrics(options.getMetrics()).isEmpty()) {
+			Map<Metric, Long> values = computeMetrics(icu, registry, monitor);
+			int nodes = values.remove(Metric.NODE_COUNT).intValue();
+			int calls = values.remove(Metric.METHOD_CALL_COUNT).intValue();
+			if (storesCounts() && !traversedLive) {
+				try {
+					cache.storeCounts(icu, nodes, calls, values.get(
+							Metric.METHOD_REFERENCE_COUNT).intValue(), values
+							.get(Metric.OBJECT_CREATION_COUNT).intValue());
+				} catch (JavaModelException ex) {
+					ex.printStackTrace();
+				}
+			}
+			return new UnitMetrics(icu.getHandleIdentifier(),
+					icu.getElementName(), nodes, calls, values);
+		}
+
+		MetricsCache.Entry cached = lookup(icu);
+		if (cached != null && cached.hasCounts()) {
+			return new UnitMetrics(icu.getHandleIdentifier(),
+					icu.getElementName(), cached.getNumberOfNodes(),
+					cached.getNumberOfMethodCalls(),
+					cached.getNumberOfMethodReferences(),
+					cached.getNumberOfObjectCreations());
+		}
+
 		// ---
 		// ASTs support the visitor pattern. Read the notes in the
-		// MyVisitor.java file.
+		// MyVisitor.java file; CountingVisitor makes the same counts
+		// from a table instead of one override per node type.
 		// ---
-		MyVisitor visitor = new MyVisitor();
-		node.accept(visitor);
+		CountingVisitor visitor = new CountingVisitor();
+		traverse(icu, visitor, visitor::getNumberOfNodes, false, monitor);
+		if (storesCounts() && !traversedLive) {
+			try {
+				cache.storeCounts(icu, visitor.getNumberOfNodes(),
+						visitor.getNumberOfMethodCalls(),
+						visitor.getNumberOfMethodReferences(),
+						visitor.getNumberOfObjectCreations());
+			} catch (JavaModelException ex) {
+				ex.printStackTrace();
+			}
+		}
+		return new UnitMetrics(icu.getHandleIdentifier(), icu.getElementName(),
+				visitor.getNumberOfNodes(), visitor.getNumberOfMethodCalls(),
+				visitor.getNumberOfMethodReferences(),
+				visitor.getNumberOfObjectCreations());
+	}// end analyzeUnit(ICompilationUnit icu, IProgressMonitor monitor)
 
-		System.out.println("There were " + visitor.getNumberOfNodes()
-				+ " node in " + method.getCompilationUnit().getElementName());
-		return visitor.getNumberOfMethodCalls();
+	// ---
+	// This method computes every metric of the analysis options that has a
+	// plug-in in the registry, and the four MyVisitor counts whether the
+	// options name them or not, all of them in one traversal of the unit's
+	// AST, see FusedVisitor. The registry must have plug-ins for those
+	// counts, as MetricRegistry.standard does. The monitor may be null.
+	// ---
+	public Map<Metric, Long> computeMetrics(ICompilationUnit icu,
+			MetricRegistry registry, IProgressMonitor monitor) {
+		Set<Metric> metrics = registry.getExtraMetrics(options.getMetrics());
+		metrics.add(Metric.NODE_COUNT);
+		metrics.add(Metric.METHOD_CALL_COUNT);
+		metrics.add(Metric.METHOD_REFERENCE_COUNT);
+		metrics.add(Metric.OBJECT_CREATION_COUNT);
+		FusedVisitor visitor = registry.newVisitor(metrics);
+		traverse(icu, visitor,
+				() -> (int) visitor.getValue(Metric.NODE_COUNT), false, monitor);
+		return visitor.getValues();
+	}// end computeMetrics(ICompilationUnit icu, MetricRegistry registry, IProgressMonitor monitor)
 
-	}// end getNumberOfMethodCalls(IMethod method)
+	// ---
+	// Parses the unit and walks the tree with the visitor, then counts the
+	// file in the AnalysisStats with the number of nodes the visitor found.
+	// The tree is only referenced from here, so it and its bindings can be
+	// collected as soon as this returns; whatever is kept must be taken
+	// from the visitor. The memory budget decides when the parse may start.
+	//
+	// If the Java editor already holds a current AST of the unit, that AST
+	// is visited instead and nothing is parsed here. With reconcile set, as
+	// for the queries about a single unit, a working copy with unsaved
+	// changes is reconciled for its AST as well; a loop over the project
+	// must not do that for every unit it meets. See LiveAsts.
+	//
+	// The tree is walked with an IterativeWalker rather than accept, so
+	// only preVisit2 and postVisit of the visitor are called. The parse
+	// recurses as deep as the file nests, so it runs on a thread with a
+	// large stack, see DeepStack, and so does the walk, which has to be
+	// on the thread the allocations are measured on.
+	// ---
+	private void traverse(final ICompilationUnit icu, final ASTVisitor visitor,
+			final IntSupplier nodes, boolean reconcile,
+			final IProgressMonitor monitor) {
+		final IterativeWalker walker = new IterativeWalker();
+		CompilationUnit live = LiveAsts.find(icu, options.getJlsLevel(),
+				reconcile, monitor);
+		traversedLive = live != null;
+		if (live != null) {
+			long mark = AnalysisStats.allocationMark();
+			long t = AnalysisStats.start();
+			walker.walk(live, visitor);
+			AnalysisStats.stop(Stage.VISIT, t);
+			AnalysisStats.fileDone(nodes.getAsInt(), mark);
+			return;
+		}
+		MemoryBudget budget = options.getMemoryBudget();
+		budget.acquire(monitor);
+		try {
+			// ---
+			// This is a Java language parser for creating abstract syntax
+			// trees (ASTs) at the JLS level of the options, JLS8 (Java SE 8)
+			// unless configured otherwise.
+			//
+			// If setResolveBindings(true), the various names and types
+			// appearing in the AST can be resolved to "bindings" by calling
+			// the resolveBinding methods. These bindings draw connections
+			// between the different parts of a program, and generally afford
+			// a more powerful vantage point for clients who wish to analyze a
+			// program's structure more deeply. However they are very
+			// expensive, and the counts MyVisitor makes are purely
+			// syntactic, so the analysis options only turn them on when one
+			// of the requested metrics needs them.
+			//
+			// With a session the parser comes from its pool, already set up
+			// for the project (see AnalysisSession).
+			// ---
+			final ASTParser parser = acquireParser(icu.getJavaProject());
+			try {
+				DeepStack.run(() -> {
+					long mark = AnalysisStats.allocationMark();
+					setSource(parser, icu);
+					// ---
+					// Creates an abstract syntax tree. The parser polls the
+					// monitor and throws an OperationCanceledException when
+					// it gets canceled.
+					// ---
+					long t = AnalysisStats.start();
+					ASTNode node = parser.createAST(monitor);
+					AnalysisStats.stop(Stage.PARSE, t);
+					t = AnalysisStats.start();
+					walker.walk(node, visitor);
+					AnalysisStats.stop(Stage.VISIT, t);
+					AnalysisStats.fileDone(nodes.getAsInt(), mark);
+				});
+			} finally {
+				releaseParser(parser);
+			}
+		} finally {
+			budget.release();
+		}
+	}// end traverse(ICompilationUnit icu, ASTVisitor visitor, IntSupplier nodes, boolean reconcile, IProgressMonitor monitor)
+
+	// ---
+	// The source can be an IClassFile or an ICompilationUnit. We read the
+	// contents ourselves so the read is timed apart from the parse; the
+	// unit name and the project acquireParser set give the parser the same
+	// environment setSource(icu) would, without setSource(icu) reloading
+	// the project options the session has cached.
+	// ---
+	private void setSource(ASTParser parser, ICompilationUnit icu) {
+		char[] source = readSource(icu);
+		if (source != null) {
+			parser.setSource(source);
+			parser.setUnitName(icu.getPath().toString());
+		} else {
+			parser.setSource(icu);
+		}
+	}
+
+	// ---
+	// A parser for a unit of the project, from the session if there is one
+	// ---
+	private ASTParser acquireParser(IJavaProject project) {
+		if (session != null)
+			return session.acquireParser(options, project);
+		ASTParser parser = options.newParser();
+		parser.setProject(project);
+		return parser;
+	}
+
+	private void releaseParser(ASTParser parser) {
+		if (session != null)
+			session.releaseParser(options, parser);
+	}
+
+	// the contents of the unit, or null if they cannot be read
+	private static char[] readSource(ICompilationUnit icu) {
+		long t = AnalysisStats.start();
+		try {
+			String source = icu.getSource();
+			return source == null ? null : source.toCharArray();
+		} catch (JavaModelException ex) {
+			return null;
+		} finally {
+			AnalysisStats.stop(Stage.SOURCE_READ, t);
+		}
+	}// end readSource(ICompilationUnit icu)
+
+	// ---
+	// Whether the counts of our parses may go to the cache. The cache is
+	// shared, so it only takes counts made over whole method bodies; a
+	// parse that skips them counts fewer nodes and calls.
+	// ---
+	private boolean storesCounts() {
+		return cache != null && !options.ignoreMethodBodies();
+	}
+
+	// returns the valid cache entry of the unit or null
+	private MetricsCache.Entry lookup(ICompilationUnit icu) {
+		if (cache == null)
+			return null;
+		try {
+			return cache.lookup(icu);
+		} catch (JavaModelException ex) {
+			ex.printStackTrace();
+			return null;
+		}
+	}// end lookup(ICompilationUnit icu)
 
 }// end InfoGatherer 
\ No newline at end of file
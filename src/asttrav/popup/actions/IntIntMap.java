@@ -0,0 +1,143 @@
+package asttrav.popup.actions;
+
+import java.util.Arrays;
+
+// ---
+// A map from non-negative int keys to int values with open addressing and
+// linear probing over two parallel int arrays. There is no boxing and no
+// entry object per key, which is what a counter per method declaration
+// (or per node offset) needs when there are thousands of them.
+// ---
+public class IntIntMap {
+	private static final int EMPTY = -1;
+
+	private int[] keys;
+	private int[] values;
+	private int size;
+
+	public IntIntMap() {
+		this(16);
+	}
+
+	public IntIntMap(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+		this.keys = new int[capacity];
+		this.values = new int[capacity];
+		Arrays.fill(this.keys, EMPTY);
+	}
+
+	// ---
+	// Builds a map from parallel key and value arrays
+	// ---
+	public static IntIntMap of(int[] keys, int[] values) {
+		IntIntMap map = new IntIntMap(keys.length);
+		for (int i = 0; i < keys.length; i++)
+			map.put(keys[i], values[i]);
+		return map;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public boolean containsKey(int key) {
+		return key >= 0 && this.keys[slot(key)] == key;
+	}
+
+	// returns the value of the key, or the default if it is absent
+	public int get(int key, int defaultValue) {
+		if (key < 0)
+			return defaultValue;
+		int slot = slot(key);
+		return this.keys[slot] == key ? this.values[slot] : defaultValue;
+	}
+
+	public void put(int key, int value) {
+		checkKey(key);
+		int slot = slot(key);
+		if (this.keys[slot] != key) {
+			this.keys[slot] = key;
+			if (++this.size * 2 > this.keys.length) {
+				this.values[slot] = value;
+				grow();
+				return;
+			}
+		}
+		this.values[slot] = value;
+	}
+
+	// ---
+	// Adds one to the value of the key, which starts out at zero
+	// ---
+	public void increment(int key) {
+		checkKey(key);
+		int slot = slot(key);
+		if (this.keys[slot] == key) {
+			this.values[slot]++;
+			return;
+		}
+		put(key, 1);
+	}
+
+	// the keys in no particular order
+	public int[] keys() {
+		int[] result = new int[this.size];
+		int n = 0;
+		for (int i = 0; i < this.keys.length; i++) {
+			if (this.keys[i] != EMPTY)
+				result[n++] = this.keys[i];
+		}
+		return result;
+	}
+
+	// the values in the order of keys()
+	public int[] values() {
+		int[] result = new int[this.size];
+		int n = 0;
+		for (int i = 0; i < this.keys.length; i++) {
+			if (this.keys[i] != EMPTY)
+				result[n++] = this.values[i];
+		}
+		return result;
+	}
+
+	public void clear() {
+		Arrays.fill(this.keys, EMPTY);
+		this.size = 0;
+	}
+
+	// the slot that holds the key, or the empty slot where it would go
+	private int slot(int key) {
+		int mask = this.keys.length - 1;
+		int slot = mix(key) & mask;
+		while (this.keys[slot] != EMPTY && this.keys[slot] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private void grow() {
+		int[] oldKeys = this.keys;
+		int[] oldValues = this.values;
+		this.keys = new int[oldKeys.length * 2];
+		this.values = new int[oldValues.length * 2];
+		Arrays.fill(this.keys, EMPTY);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == EMPTY)
+				continue;
+			int slot = slot(oldKeys[i]);
+			this.keys[slot] = oldKeys[i];
+			this.values[slot] = oldValues[i];
+		}
+	}
+
+	private static int mix(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static void checkKey(int key) {
+		if (key < 0)
+			throw new IllegalArgumentException("negative key " + key);
+	}
+
+}// end IntIntMap
@@ -0,0 +1,148 @@
+package asttrav.popup.actions;
+
+import java.util.List;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.StructuralPropertyDescriptor;
+
+// ---
+// Walks a tree the way ASTNode.accept does, but with a loop and a stack
+// of its own instead of one Java frame (several, in fact) per level, so a
+// generated file with a string concatenation or builder chain nested tens
+// of thousands deep neither overflows the thread's stack nor pays for the
+// deep recursion. The children of a node are found through its
+// StructuralPropertyDescriptors, in the order structuralPropertiesForType
+// lists them.
+//
+// Only preVisit2 and postVisit of the visitor are called, with the same
+// contract as accept: preVisit2 decides whether the children are walked,
+// and postVisit is called for every node preVisit2 was called for. The
+// type specific visit(T) and endVisit(T) methods are not called, so this
+// is for visitors that do all their work in those two, like
+// CountingVisitor and FusedVisitor; it gives them the same counts as
+// accept, and CountingVisitor the same as MyVisitor. Like visit(Javadoc)
+// of ASTVisitor, the walker leaves out the children of Javadoc comments
+// unless told otherwise.
+//
+// The stack is three parallel arrays that grow by doubling and are kept
+// between walks, so once it is deep enough walking allocates nothing.
+// A walker is used by one thread at a time.
+// ---
+public final class IterativeWalker {
+	private static final int INITIAL_DEPTH = 64;
+
+	private final boolean visitDocTags;
+
+	// the nodes being walked, root first
+	private ASTNode[] nodes = new ASTNode[INITIAL_DEPTH];
+	// the index into structuralPropertiesForType of the next property of
+	// each node to look at
+	private int[] properties = new int[INITIAL_DEPTH];
+	// the index of the next element when that property is a child list
+	private int[] elements = new int[INITIAL_DEPTH];
+
+	public IterativeWalker() {
+		this(false);
+	}
+
+	// ---
+	// A walker that also walks the children of Javadoc comments, like
+	// accept does for a visitor made with new ASTVisitor(true)
+	// ---
+	public IterativeWalker(boolean visitDocTags) {
+		this.visitDocTags = visitDocTags;
+	}
+
+	// ---
+	// Walks the tree below and including the root, see the class comment
+	// ---
+	public void walk(ASTNode root, ASTVisitor visitor) {
+		if (!enter(root, visitor)) {
+			visitor.postVisit(root);
+			return;
+		}
+		int top = 0;
+		push(0, root);
+		try {
+			while (top >= 0) {
+				ASTNode child = nextChild(top);
+				if (child == null) {
+					ASTNode node = nodes[top];
+					nodes[top--] = null;
+					visitor.postVisit(node);
+				} else if (enter(child, visitor)) {
+					push(++top, child);
+				} else {
+					visitor.postVisit(child);
+				}
+			}
+		} finally {
+			// do not keep the tree reachable after an exception either
+			for (; top >= 0; top--)
+				nodes[top] = null;
+		}
+	}// end walk(ASTNode root, ASTVisitor visitor)
+
+	// preVisit2 and what the visit(T) of ASTVisitor would return
+	private boolean enter(ASTNode node, ASTVisitor visitor) {
+		return visitor.preVisit2(node)
+				&& (visitDocTags || node.getNodeType() != ASTNode.JAVADOC);
+	}
+
+	private void push(int top, ASTNode node) {
+		if (top == nodes.length) {
+			int length = nodes.length * 2;
+			ASTNode[] moreNodes = new ASTNode[length];
+			System.arraycopy(nodes, 0, moreNodes, 0, top);
+			nodes = moreNodes;
+			int[] moreProperties = new int[length];
+			System.arraycopy(properties, 0, moreProperties, 0, top);
+			properties = moreProperties;
+			int[] moreElements = new int[length];
+			System.arraycopy(elements, 0, moreElements, 0, top);
+			elements = moreElements;
+		}
+		nodes[top] = node;
+		properties[top] = 0;
+		elements[top] = 0;
+	}// end push(int top, ASTNode node)
+
+	// ---
+	// The next child of the node at the given level of the stack, or null
+	// when it has no more. Simple properties are skipped without reading
+	// them, since reading a primitive one would box it. The property lists
+	// are static in JDT and the child lists are the node's own, so nothing
+	// is allocated here.
+	// ---
+	private ASTNode nextChild(int top) {
+		ASTNode node = nodes[top];
+		List<?> descriptors = node.structuralPropertiesForType();
+		int property = properties[top];
+		while (property < descriptors.size()) {
+			StructuralPropertyDescriptor descriptor =
+					(StructuralPropertyDescriptor) descriptors.get(property);
+			if (descriptor.isChildProperty()) {
+				properties[top] = ++property;
+				ASTNode child = (ASTNode) node
+						.getStructuralProperty(descriptor);
+				if (child != null)
+					return child;
+			} else if (descriptor.isChildListProperty()) {
+				List<?> children = (List<?>) node
+						.getStructuralProperty(descriptor);
+				int element = elements[top];
+				if (element < children.size()) {
+					elements[top] = element + 1;
+					return (ASTNode) children.get(element);
+				}
+				properties[top] = ++property;
+				elements[top] = 0;
+			} else {
+				properties[top] = ++property;
+			}
+		}
+		return null;
+	}// end nextChild(int top)
+
+}// end IterativeWalker
@@ -0,0 +1,78 @@
+package asttrav.popup.actions;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.ui.SharedASTProvider;
+
+// ---
+// Finds an AST of a compilation unit that already exists or has to be
+// built anyway, so the analysis does not parse the file a second time:
+//
+// - the AST the Java editor keeps for its input, through JDT UI's
+//   SharedASTProvider. It is current with the editor's buffer, unsaved
+//   changes included, once the editor has reconciled, and for the active
+//   editor we wait for that;
+// - for any other working copy with unsaved changes, the AST of
+//   reconciling it, which brings the Java model up to date as well.
+//   Callers only ask for this when they look at a single unit.
+//
+// An AST is only taken at exactly the JLS level asked for: a tree of a
+// higher level has node types a lower one does not, and counts made on it
+// would differ from those of our own parse.
+//
+// The ASTs are shared with the editor, so they must only be read. JDT UI
+// is an optional dependency; without it only the second source is used.
+// ---
+final class LiveAsts {
+	// cleared the first time JDT UI turns out to be missing
+	private static volatile boolean editorAvailable = true;
+
+	private LiveAsts() {
+	}
+
+	// ---
+	// Returns a current AST of the unit at the given JLS level, or null if
+	// there is none and the unit has to be parsed. Working copies are only
+	// reconciled if reconcile is set. The monitor may be null.
+	// ---
+	static CompilationUnit find(ICompilationUnit icu, int jlsLevel,
+			boolean reconcile, IProgressMonitor monitor) {
+		CompilationUnit ast = fromEditor(icu, monitor);
+		if (ast != null && ast.getAST().apiLevel() == jlsLevel)
+			return ast;
+		return reconcile ? fromReconcile(icu, jlsLevel, monitor) : null;
+	}
+
+	private static CompilationUnit fromEditor(ICompilationUnit icu,
+			IProgressMonitor monitor) {
+		if (!editorAvailable)
+			return null;
+		try {
+			return SharedASTProvider.getAST(icu,
+					SharedASTProvider.WAIT_ACTIVE_ONLY, monitor);
+		} catch (NoClassDefFoundError ex) {
+			// no JDT UI, e.g. in a headless run
+			editorAvailable = false;
+			return null;
+		}
+	}
+
+	// ---
+	// A working copy whose buffer differs from its file gets reconciled,
+	// which parses it once and hands back the AST of that parse
+	// ---
+	private static CompilationUnit fromReconcile(ICompilationUnit icu,
+			int jlsLevel, IProgressMonitor monitor) {
+		try {
+			if (!icu.isWorkingCopy() || icu.isConsistent())
+				return null;
+			return icu.reconcile(jlsLevel, false, null, monitor);
+		} catch (JavaModelException ex) {
+			ex.printStackTrace();
+			return null;
+		}
+	}
+
+}// end LiveAsts
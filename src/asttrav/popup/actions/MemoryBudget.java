@@ -0,0 +1,153 @@
+package asttrav.popup.actions;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+// ---
+// Throttles the number of ASTs alive at once by the headroom left on the
+// heap. Whoever is about to build an AST calls acquire and calls release
+// as soon as the metrics have been taken from it and the tree (and its
+// bindings) is no longer referenced. acquire lets the caller go ahead
+// while the used heap, as the MemoryMXBean reports it, is below the
+// budget; above it, the caller waits until another AST is released or the
+// collector has made room. The first AST is always let through, so a tree
+// that alone is bigger than the budget is still analysed, one at a time.
+//
+// The budget is shared by every analysis in the JVM unless one is given
+// its own, see AnalysisOptions.withMemoryBudget. The default can be set
+// with -Dasttrav.heapBudget=<n>% of the maximum heap or =<n>[k|m|g] bytes.
+// ---
+public final class MemoryBudget {
+	public static final String PROPERTY = "asttrav.heapBudget"; //$NON-NLS-1$
+
+	// how long a waiting caller sleeps before it looks at the heap again
+	private static final long POLL_MILLIS = 50;
+	private static final double DEFAULT_FRACTION = 0.75;
+
+	private static final MemoryBudget DEFAULT = fromProperty();
+
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	// the used heap, in bytes, above which no further AST is started
+	private final long budget;
+	// the ASTs acquired and not yet released, guarded by this
+	private int inFlight;
+
+	private MemoryBudget(long budget) {
+		if (budget <= 0)
+			throw new IllegalArgumentException("budget must be positive");
+		this.budget = budget;
+	}
+
+	// ---
+	// A budget of the given number of bytes of used heap
+	// ---
+	public static MemoryBudget ofBytes(long bytes) {
+		return new MemoryBudget(bytes);
+	}
+
+	// ---
+	// A budget of the given fraction (0 to 1) of the maximum heap
+	// ---
+	public static MemoryBudget ofHeapFraction(double fraction) {
+		if (fraction <= 0 || fraction > 1)
+			throw new IllegalArgumentException("fraction must be in (0, 1]");
+		return new MemoryBudget((long) (maxHeap() * fraction));
+	}
+
+	// ---
+	// Reads a budget written as "<n>%" of the maximum heap or as a number
+	// of bytes with an optional k, m or g suffix
+	// ---
+	public static MemoryBudget parse(String spec) {
+		String s = spec.trim().toLowerCase();
+		if (s.endsWith("%")) //$NON-NLS-1$
+			return ofHeapFraction(Double.parseDouble(s.substring(0,
+					s.length() - 1)) / 100);
+		long unit = 1;
+		switch (s.isEmpty() ? ' ' : s.charAt(s.length() - 1)) {
+		case 'k':
+			unit = 1L << 10;
+			break;
+		case 'm':
+			unit = 1L << 20;
+			break;
+		case 'g':
+			unit = 1L << 30;
+			break;
+		default:
+			return ofBytes(Long.parseLong(s));
+		}
+		return ofBytes(Long.parseLong(s.substring(0, s.length() - 1)) * unit);
+	}// end parse(String spec)
+
+	// the budget shared by all analyses that were not given one
+	public static MemoryBudget getDefault() {
+		return DEFAULT;
+	}
+
+	public long getBudget() {
+		return this.budget;
+	}
+
+	public synchronized int getInFlight() {
+		return this.inFlight;
+	}
+
+	// ---
+	// Waits until there is room for one more AST and counts it in. Throws
+	// an OperationCanceledException if the monitor is canceled or the
+	// thread is interrupted while waiting. The monitor may be null.
+	// ---
+	public synchronized void acquire(IProgressMonitor monitor) {
+		try {
+			while (this.inFlight > 0 && usedHeap() > this.budget) {
+				if (monitor != null && monitor.isCanceled())
+					throw new OperationCanceledException();
+				wait(POLL_MILLIS);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new OperationCanceledException();
+		}
+		this.inFlight++;
+	}// end acquire(IProgressMonitor monitor)
+
+	// ---
+	// Counts out an AST that is no longer referenced
+	// ---
+	public synchronized void release() {
+		if (this.inFlight == 0)
+			throw new IllegalStateException("release without acquire");
+		this.inFlight--;
+		notifyAll();
+	}
+
+	private long usedHeap() {
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	private static long maxHeap() {
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean()
+				.getHeapMemoryUsage();
+		return heap.getMax() > 0 ? heap.getMax() : Runtime.getRuntime()
+				.maxMemory();
+	}
+
+	private static MemoryBudget fromProperty() {
+		String spec = System.getProperty(PROPERTY);
+		if (spec != null) {
+			try {
+				return parse(spec);
+			} catch (IllegalArgumentException ex) {
+				System.err.println("Ignoring " + PROPERTY + "=" + spec + ": " //$NON-NLS-1$ //$NON-NLS-2$
+						+ ex.getMessage());
+			}
+		}
+		return ofHeapFraction(DEFAULT_FRACTION);
+	}
+
+}// end MemoryBudget
@@ -0,0 +1,167 @@
+package asttrav.popup.actions;
+
+import java.util.Arrays;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.PackageDeclaration;
+
+// ---
+// A CountingVisitor that also counts the calls made from each method
+// declaration, the way MyVisitor does: a call counts for the innermost
+// declaration it is in, so a call in a method of an anonymous class
+// counts for that method only. All of it happens in preVisit2 and
+// postVisit, so the visitor can be driven by an IterativeWalker.
+//
+// Only the methods of top level and member types are recorded, with the
+// name IType.getFullyQualifiedName gives their type (p.Outer$Inner), as
+// those are the ones IType.getAllTypes reaches in the workspace. Methods
+// of anonymous and local classes get no record of their own.
+//
+// The calls of every declaration, those of anonymous and local classes
+// included, are also kept by the offset of its name the way MyVisitor
+// keeps them, see getMethodCallCounts.
+// ---
+public final class MethodCountingVisitor extends ASTVisitor {
+	private final CountingVisitor counts = new CountingVisitor();
+
+	// the declarations we are inside, innermost last, and the calls made
+	// from each so far
+	private MethodDeclaration[] methodStack = new MethodDeclaration[8];
+	private int[] callStack = new int[8];
+	private int methodDepth = 0;
+
+	// the recorded methods, in the order their declarations end
+	private String[] typeNames = new String[16];
+	private String[] methodNames = new String[16];
+	private int[] methodCalls = new int[16];
+	private int numMethods = 0;
+
+	// the calls of every declaration that made any, by name offset
+	private final IntIntMap callsPerMethod = new IntIntMap();
+
+	public MethodCountingVisitor() {
+		super();
+	}
+
+	public int getNumberOfNodes() {
+		return this.counts.getNumberOfNodes();
+	}
+
+	public int getNumberOfMethodCalls() {
+		return this.counts.getNumberOfMethodCalls();
+	}
+
+	public int getNumberOfMethodReferences() {
+		return this.counts.getNumberOfMethodReferences();
+	}
+
+	public int getNumberOfObjectCreations() {
+		return this.counts.getNumberOfObjectCreations();
+	}
+
+	// the number of methods recorded, see the class comment
+	public int getNumberOfMethods() {
+		return this.numMethods;
+	}
+
+	// the fully qualified name of the type of the i-th recorded method
+	public String getTypeName(int i) {
+		return this.typeNames[i];
+	}
+
+	public String getMethodName(int i) {
+		return this.methodNames[i];
+	}
+
+	// the calls made from the body of the i-th recorded method
+	public int getNumberOfMethodCalls(int i) {
+		return this.methodCalls[i];
+	}
+
+	// ---
+	// The calls made from every method declaration that made at least
+	// one, keyed by the offset of the method's name, as MyVisitor's
+	// getMethodCallCounts. The map is cleared by reset.
+	// ---
+	public IntIntMap getMethodCallCounts() {
+		return this.callsPerMethod;
+	}
+
+	// clears the counts so the visitor can be used on another tree
+	public void reset() {
+		this.counts.reset();
+		this.callsPerMethod.clear();
+		Arrays.fill(this.methodStack, 0, this.methodDepth, null);
+		this.methodDepth = 0;
+		Arrays.fill(this.typeNames, 0, this.numMethods, null);
+		Arrays.fill(this.methodNames, 0, this.numMethods, null);
+		this.numMethods = 0;
+	}
+
+	public boolean preVisit2(ASTNode node) {
+		int type = node.getNodeType();
+		if (type == ASTNode.METHOD_DECLARATION) {
+			if (this.methodDepth == this.methodStack.length) {
+				int length = this.methodDepth * 2;
+				this.methodStack = Arrays.copyOf(this.methodStack, length);
+				this.callStack = Arrays.copyOf(this.callStack, length);
+			}
+			this.methodStack[this.methodDepth] = (MethodDeclaration) node;
+			this.callStack[this.methodDepth++] = 0;
+		} else if (this.methodDepth > 0 && CountingVisitor.isCall(type)) {
+			this.callStack[this.methodDepth - 1]++;
+		}
+		return this.counts.preVisit2(node);
+	}
+
+	public void postVisit(ASTNode node) {
+		if (node.getNodeType() != ASTNode.METHOD_DECLARATION)
+			return;
+		MethodDeclaration method = this.methodStack[--this.methodDepth];
+		this.methodStack[this.methodDepth] = null;
+		if (this.callStack[this.methodDepth] > 0)
+			this.callsPerMethod.put(method.getName().getStartPosition(),
+					this.callStack[this.methodDepth]);
+		String typeName = typeName(method.getParent());
+		if (typeName == null)
+			return;
+		if (this.numMethods == this.typeNames.length) {
+			int length = this.numMethods * 2;
+			this.typeNames = Arrays.copyOf(this.typeNames, length);
+			this.methodNames = Arrays.copyOf(this.methodNames, length);
+			this.methodCalls = Arrays.copyOf(this.methodCalls, length);
+		}
+		this.typeNames[this.numMethods] = typeName;
+		this.methodNames[this.numMethods] = method.getName().getIdentifier();
+		this.methodCalls[this.numMethods++] = this.callStack[this.methodDepth];
+	}// end postVisit(ASTNode node)
+
+	// ---
+	// The fully qualified name of the type declared by the node, or null
+	// when it is not a top level or member type
+	// ---
+	private static String typeName(ASTNode node) {
+		StringBuilder name = new StringBuilder();
+		while (node instanceof AbstractTypeDeclaration) {
+			AbstractTypeDeclaration type = (AbstractTypeDeclaration) node;
+			name.insert(0, type.getName().getIdentifier());
+			if (type.isPackageMemberTypeDeclaration()) {
+				PackageDeclaration pkg = ((CompilationUnit) type.getParent())
+						.getPackage();
+				if (pkg != null)
+					name.insert(0, pkg.getName().getFullyQualifiedName() + '.');
+				return name.toString();
+			}
+			if (!type.isMemberTypeDeclaration())
+				return null;
+			name.insert(0, '$');
+			node = type.getParent();
+		}
+		return null;
+	}// end typeName(ASTNode node)
+
+}// end MethodCountingVisitor
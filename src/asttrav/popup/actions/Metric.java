@@ -0,0 +1,50 @@
+package asttrav.popup.actions;
+
+// ---
+// The metrics the analysis can compute. Each one states what it needs
+// from the parser so that AnalysisOptions can switch off the expensive
+// parts (binding resolution and method bodies) whenever none of the
+// requested metrics uses them.
+// ---
+public enum Metric {
+	// number of AST nodes, see MyVisitor.getNumberOfNodes
+	NODE_COUNT(false, true),
+	// number of method and constructor invocations, see
+	// MyVisitor.getNumberOfMethodCalls
+	METHOD_CALL_COUNT(false, true),
+	// number of method declarations; the signatures are enough
+	METHOD_DECLARATION_COUNT(false, false),
+	// caller to callee edges, resolved through IMethodBinding; see
+	// asttrav.callgraph.CallGraphBuilder
+	CALL_GRAPH(true, true),
+	// McCabe's cyclomatic complexity summed over the method declarations,
+	// see asttrav.metrics.CyclomaticComplexity
+	CYCLOMATIC_COMPLEXITY(false, true),
+	// deepest nesting of control flow statements
+	NESTING_DEPTH(false, true),
+	// number of field accesses written as such (this.x, super.x, a().x)
+	FIELD_ACCESS_COUNT(false, true),
+	// number of class instance creations
+	OBJECT_CREATION_COUNT(false, true),
+	// number of method and constructor references (Java 8)
+	METHOD_REFERENCE_COUNT(false, true);
+
+	private final boolean needsBindings;
+	private final boolean needsBodies;
+
+	private Metric(boolean needsBindings, boolean needsBodies) {
+		this.needsBindings = needsBindings;
+		this.needsBodies = needsBodies;
+	}
+
+	// true if the metric calls resolveBinding on any node
+	public boolean needsBindings() {
+		return this.needsBindings;
+	}
+
+	// true if the metric looks inside method bodies
+	public boolean needsBodies() {
+		return this.needsBodies;
+	}
+
+}// end Metric
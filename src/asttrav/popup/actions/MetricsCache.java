@@ -0,0 +1,524 @@
+package asttrav.popup.actions;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.ISourceRange;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaModelException;
+
+import asttrav.callgraph.MethodKeyTable;
+
+// ---
+// A disk backed cache of per compilation unit metrics: the node and call
+// counts of MyVisitor and the number of user defined methods of every type
+// declared in the unit. Entries are keyed by the handle identifier of the
+// unit and validated against the modification stamp of its file, and
+// against a SHA-1 hash of its contents when the stamp has moved (a touched
+// but unchanged file is still a hit). The cache is kept in the state
+// location of the plug-in, see Activator.getMetricsCache, and is written
+// back when the plug-in stops so it survives restarts.
+//
+// On disk the cache is a MetricsIndex, which is memory mapped when the
+// cache is loaded; the heap only holds the entries that changed since
+// (and markers for the ones removed), so startup costs a mapping and not
+// a read of every entry. save() merges the two into a new index.
+//
+// A mapped file cannot be replaced on every platform (not on Windows), so
+// every save writes a new generation, <file>.<n>, instead of writing over
+// the index in use; load maps the newest one that opens and the older
+// ones are deleted as soon as nothing maps them any more.
+//
+// The two halves of an entry are filled in independently: the MyVisitor
+// counts (and, when MyVisitor made them, the calls per method declaration)
+// by a parse, the method counts by a walk of the Java model. The calls per
+// method are keyed by the offset of the method's name and also carry the
+// method's key, IMethod.getKey, which the index links to the call graph's
+// method keys. A value of -1 (or
+// null for the arrays) means that part has not been computed yet.
+// Working copies with unsaved changes are never cached.
+// ---
+public class MetricsCache {
+	// marks an entry of the index that was removed since it was mapped
+	private static final Entry REMOVED = new Entry(0, new byte[0], -1, -1,
+			-1, -1, null, null, null, null, null);
+
+	private final File file;
+	// the entries stored or removed since the index was mapped
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private volatile MetricsIndex index;
+	// the generation of the newest index file, -1 if there is none
+	private long generation = -1;
+	private volatile MethodKeyTable methodKeys;
+
+	public MetricsCache(File file) {
+		this.file = file;
+	}
+
+	// ---
+	// Returns the entry for the unit if its file has not changed since the
+	// entry was stored, null otherwise. Stale entries are dropped.
+	// ---
+	public Entry lookup(ICompilationUnit unit) throws JavaModelException {
+		if (!isCacheable(unit))
+			return null;
+		String handle = unit.getHandleIdentifier();
+		Entry entry = current(handle);
+		if (entry == null)
+			return null;
+		long stamp = getStamp(unit);
+		if (entry.stamp == stamp)
+			return entry;
+		// the stamp moved, see if the contents did too
+		byte[] hash = hash(unit);
+		if (!Arrays.equals(entry.hash, hash)) {
+			remove(handle);
+			return null;
+		}
+		Entry refreshed = new Entry(stamp, hash, entry.numNodes,
+				entry.numCalls, entry.numReferences, entry.numCreations,
+				entry.typeNames, entry.methodCounts,
+				entry.callOffsets, entry.callCounts, entry.callKeys);
+		entries.put(handle, refreshed);
+		return refreshed;
+	}// end lookup(ICompilationUnit unit)
+
+	// ---
+	// Stores the MyVisitor counts of the unit (nodes, calls, method
+	// references and object creations), keeping the method counts if they
+	// were computed for the same contents
+	// ---
+	public void storeCounts(ICompilationUnit unit, int numNodes, int numCalls,
+			int numReferences, int numCreations) throws JavaModelException {
+		storeCounts(unit, numNodes, numCalls, numReferences, numCreations,
+				null);
+	}// end storeCounts(ICompilationUnit unit, int numNodes, int numCalls, ...)
+
+	// ---
+	// Same as above, also storing the calls made from each method
+	// declaration (see MyVisitor.getMethodCallCounts); callsPerMethod may
+	// be null. Calls per method stored earlier for the same contents are
+	// kept when none are given.
+	// ---
+	public void storeCounts(ICompilationUnit unit, int numNodes, int numCalls,
+			int numReferences, int numCreations, IntIntMap callsPerMethod)
+			throws JavaModelException {
+		if (!isCacheable(unit))
+			return;
+		long stamp = getStamp(unit);
+		byte[] hash = hash(unit);
+		int[] offsets = callsPerMethod == null ? null : callsPerMethod.keys();
+		int[] counts = callsPerMethod == null ? null : callsPerMethod.values();
+		String[] keys = offsets == null ? null : methodKeys(unit, offsets);
+		entries.compute(unit.getHandleIdentifier(), (handle, changed) -> {
+			Entry old = changed != null ? unlessRemoved(changed)
+					: fromIndex(handle);
+			if (old != null && Arrays.equals(old.hash, hash))
+				return new Entry(stamp, hash, numNodes, numCalls,
+						numReferences, numCreations, old.typeNames,
+						old.methodCounts,
+						offsets == null ? old.callOffsets : offsets,
+						offsets == null ? old.callCounts : counts,
+						offsets == null ? old.callKeys : keys);
+			return new Entry(stamp, hash, numNodes, numCalls, numReferences,
+					numCreations, null, null, offsets, counts, keys);
+		});
+	}// end storeCounts(ICompilationUnit unit, ..., IntIntMap callsPerMethod)
+
+	// ---
+	// Stores the number of user defined methods of each type declared in
+	// the unit, keeping the MyVisitor counts if they were computed for the
+	// same contents
+	// ---
+	public void storeMethodCounts(ICompilationUnit unit, String[] typeNames,
+			int[] methodCounts) throws JavaModelException {
+		if (!isCacheable(unit))
+			return;
+		long stamp = getStamp(unit);
+		byte[] hash = hash(unit);
+		entries.compute(unit.getHandleIdentifier(), (handle, changed) -> {
+			Entry old = changed != null ? unlessRemoved(changed)
+					: fromIndex(handle);
+			if (old != null && Arrays.equals(old.hash, hash))
+				return new Entry(stamp, hash, old.numNodes, old.numCalls,
+						old.numReferences, old.numCreations, typeNames,
+						methodCounts, old.callOffsets, old.callCounts,
+						old.callKeys);
+			return new Entry(stamp, hash, -1, -1, -1, -1, typeNames,
+					methodCounts, null, null, null);
+		});
+	}// end storeMethodCounts(ICompilationUnit unit, String[] typeNames, int[] methodCounts)
+
+	// forgets the entry of the given unit
+	public void remove(String handle) {
+		MetricsIndex mapped = index;
+		if (mapped != null && mapped.findUnit(handle) >= 0)
+			entries.put(handle, REMOVED);
+		else
+			entries.remove(handle);
+	}
+
+	public void clear() {
+		index = null;
+		entries.clear();
+	}
+
+	// the number of units with an entry
+	public int size() {
+		int size = 0;
+		MetricsIndex mapped = index;
+		if (mapped != null) {
+			for (int u = 0; u < mapped.getNumberOfUnits(); u++) {
+				if (!entries.containsKey(mapped.getHandle(u)))
+					size++;
+			}
+		}
+		for (Entry entry : entries.values()) {
+			if (entry != REMOVED)
+				size++;
+		}
+		return size;
+	}
+
+	// ---
+	// The method keys of the call graph, written to the index on save
+	// so their IDs can be looked up without rebuilding the graph
+	// ---
+	public void setMethodKeys(MethodKeyTable methodKeys) {
+		this.methodKeys = methodKeys;
+	}
+
+	// the mapped index, null if there is none
+	public MetricsIndex getIndex() {
+		return index;
+	}
+
+	// ---
+	// Maps the newest index file that opens. Missing, truncated or foreign
+	// files just leave the cache empty; the ones not mapped are deleted.
+	// ---
+	public synchronized void load() {
+		long[] generations = generations();
+		if (generations.length > 0)
+			generation = generations[generations.length - 1];
+		for (int i = generations.length - 1; i >= 0 && index == null; i--) {
+			try {
+				index = MetricsIndex.open(generationFile(generations[i]));
+				// a newer file that did not open is written over next
+				generation = generations[i];
+			} catch (IOException ex) {
+				ex.printStackTrace();
+			}
+		}
+		deleteOldGenerations();
+	}// end load()
+
+	// ---
+	// Writes the mapped entries that did not change together with the
+	// changed ones to the next generation of the index, first to a
+	// temporary file that is then renamed, so a crash in the middle never
+	// leaves a corrupt cache behind. The new index is mapped afterwards.
+	// Entries stored while the index is written stay in memory for the
+	// next save.
+	// ---
+	public synchronized void save() throws IOException {
+		// what is written; entries may change while we are at it
+		Map<String, Entry> written = new HashMap<>(entries);
+		MetricsIndex.Writer writer = new MetricsIndex.Writer();
+		MethodKeyTable keys = methodKeys;
+		if (keys == null && index != null)
+			keys = methodKeysOf(index);
+		if (keys != null)
+			writer.setMethodKeys(keys);
+		MetricsIndex mapped = index;
+		if (mapped != null) {
+			for (int u = 0; u < mapped.getNumberOfUnits(); u++) {
+				String handle = mapped.getHandle(u);
+				if (!written.containsKey(handle))
+					writer.addUnit(handle, mapped.getEntry(u));
+			}
+		}
+		for (Map.Entry<String, Entry> e : written.entrySet()) {
+			if (e.getValue() != REMOVED)
+				writer.addUnit(e.getKey(), e.getValue());
+		}
+		long next = generation + 1;
+		Path target = generationFile(next);
+		Path tmp = new File(target + ".tmp").toPath();
+		writer.write(tmp);
+		Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		index = MetricsIndex.open(target);
+		generation = next;
+		// only what was written; a newer entry is not in the index yet
+		for (Map.Entry<String, Entry> e : written.entrySet())
+			entries.remove(e.getKey(), e.getValue());
+		deleteOldGenerations();
+	}// end save()
+
+	private Path generationFile(long generation) {
+		return new File(file.getPath() + "." + generation).toPath();
+	}
+
+	// the generations on disk, oldest first
+	private long[] generations() {
+		File dir = file.getAbsoluteFile().getParentFile();
+		String prefix = file.getName() + ".";
+		String[] names = dir == null ? null : dir.list();
+		if (names == null)
+			return new long[0];
+		long[] found = new long[names.length];
+		int n = 0;
+		for (String name : names) {
+			if (!name.startsWith(prefix))
+				continue;
+			try {
+				found[n] = Long.parseLong(name.substring(prefix.length()));
+				if (found[n] >= 0)
+					n++;
+			} catch (NumberFormatException ex) {
+				// a temporary file or not ours
+			}
+		}
+		long[] result = Arrays.copyOf(found, n);
+		Arrays.sort(result);
+		return result;
+	}// end generations()
+
+	// ---
+	// Deletes the index files older than the newest generation, along with
+	// the temporary files of saves that did not finish. A file that is
+	// still mapped cannot be deleted on Windows; it goes with a later save.
+	// ---
+	private void deleteOldGenerations() {
+		for (long old : generations()) {
+			if (old < generation)
+				generationFile(old).toFile().delete();
+		}
+		new File(generationFile(generation + 1) + ".tmp").delete();
+		// the single file the index was kept in before generations
+		file.delete();
+	}
+
+	// the entry of the handle, changed or mapped, or null
+	private Entry current(String handle) {
+		Entry changed = entries.get(handle);
+		if (changed != null)
+			return unlessRemoved(changed);
+		return fromIndex(handle);
+	}
+
+	private static Entry unlessRemoved(Entry entry) {
+		return entry == REMOVED ? null : entry;
+	}
+
+	private Entry fromIndex(String handle) {
+		MetricsIndex mapped = index;
+		if (mapped == null)
+			return null;
+		int unit = mapped.findUnit(handle);
+		return unit < 0 ? null : mapped.getEntry(unit);
+	}
+
+	private static MethodKeyTable methodKeysOf(MetricsIndex mapped) {
+		MethodKeyTable keys = new MethodKeyTable(mapped.getNumberOfMethodKeys());
+		for (int id = 0; id < mapped.getNumberOfMethodKeys(); id++)
+			keys.intern(mapped.getMethodKey(id));
+		return keys;
+	}
+
+	// ---
+	// The keys of the methods whose names start at the given offsets, in
+	// their order, null where no method of the unit's types starts there
+	// ---
+	private static String[] methodKeys(ICompilationUnit unit, int[] offsets)
+			throws JavaModelException {
+		IntIntMap positions = new IntIntMap(offsets.length);
+		for (int i = 0; i < offsets.length; i++)
+			positions.put(offsets[i], i);
+		String[] keys = new String[offsets.length];
+		for (IType type : unit.getAllTypes()) {
+			for (IMethod method : type.getMethods()) {
+				ISourceRange name = method.getNameRange();
+				int i = name == null ? -1 : positions.get(name.getOffset(), -1);
+				if (i >= 0)
+					keys[i] = method.getKey();
+			}
+		}
+		return keys;
+	}// end methodKeys(ICompilationUnit unit, int[] offsets)
+
+	// only units backed by a file without unsaved edits can be cached
+	private static boolean isCacheable(ICompilationUnit unit)
+			throws JavaModelException {
+		return unit.getResource() != null
+				&& !(unit.isWorkingCopy() && unit.hasUnsavedChanges());
+	}
+
+	private static long getStamp(ICompilationUnit unit) {
+		IResource resource = unit.getResource();
+		return resource.getModificationStamp();
+	}
+
+	private static byte[] hash(ICompilationUnit unit) throws JavaModelException {
+		String source = unit.getSource();
+		if (source == null)
+			source = "";
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(
+					source.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException ex) {
+			// every Java platform is required to provide SHA-1
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	// ---
+	// The cached metrics of one compilation unit
+	// ---
+	public static final class Entry {
+		private final long stamp;
+		private final byte[] hash;
+		private final int numNodes;
+		private final int numCalls;
+		private final int numReferences;
+		private final int numCreations;
+		private final String[] typeNames;
+		private final int[] methodCounts;
+		private final int[] callOffsets;
+		private final int[] callCounts;
+		// the method keys of callOffsets, elements may be null
+		private final String[] callKeys;
+
+		Entry(long stamp, byte[] hash, int numNodes, int numCalls,
+				int numReferences, int numCreations, String[] typeNames,
+				int[] methodCounts, int[] callOffsets, int[] callCounts,
+				String[] callKeys) {
+			this.stamp = stamp;
+			this.hash = hash;
+			this.numNodes = numNodes;
+			this.numCalls = numCalls;
+			this.numReferences = numReferences;
+			this.numCreations = numCreations;
+			this.typeNames = typeNames;
+			this.methodCounts = methodCounts;
+			this.callOffsets = callOffsets;
+			this.callCounts = callCounts;
+			this.callKeys = callKeys;
+		}
+
+		long getStamp() {
+			return this.stamp;
+		}
+
+		byte[] getHash() {
+			return this.hash;
+		}
+
+		// true if the MyVisitor counts are known
+		public boolean hasCounts() {
+			return this.numNodes >= 0;
+		}
+
+		// true if the calls per method declaration are known
+		public boolean hasMethodCallCounts() {
+			return this.callOffsets != null;
+		}
+
+		// ---
+		// The calls made from the method declaration whose name starts at
+		// the given offset, 0 for a method without calls
+		// ---
+		public int getNumberOfMethodCalls(int nameOffset) {
+			for (int i = 0; i < this.callOffsets.length; i++) {
+				if (this.callOffsets[i] == nameOffset)
+					return this.callCounts[i];
+			}
+			return 0;
+		}
+
+		// ---
+		// The calls made from the method with the given key, see
+		// IMethod.getKey, or -1 if no method with calls has that key
+		// ---
+		public int getNumberOfMethodCalls(String methodKey) {
+			for (int i = 0; this.callKeys != null && i < this.callKeys.length; i++) {
+				if (methodKey.equals(this.callKeys[i]))
+					return this.callCounts[i];
+			}
+			return -1;
+		}
+
+		// the calls per method declaration, keyed by name offset
+		public IntIntMap getMethodCallCounts() {
+			return IntIntMap.of(this.callOffsets, this.callCounts);
+		}
+
+		// the name offsets, calls and keys, in the same order
+		int[] getCallOffsets() {
+			return this.callOffsets;
+		}
+
+		int[] getCallCounts() {
+			return this.callCounts;
+		}
+
+		String[] getCallKeys() {
+			return this.callKeys;
+		}
+
+		// true if the per type method counts are known
+		public boolean hasMethodCounts() {
+			return this.typeNames != null;
+		}
+
+		public int getNumberOfNodes() {
+			return this.numNodes;
+		}
+
+		public int getNumberOfMethodCalls() {
+			return this.numCalls;
+		}
+
+		public int getNumberOfMethodReferences() {
+			return this.numReferences;
+		}
+
+		public int getNumberOfObjectCreations() {
+			return this.numCreations;
+		}
+
+		// the fully qualified names of the types declared in the unit
+		public String[] getTypeNames() {
+			return this.typeNames == null ? null : this.typeNames.clone();
+		}
+
+		// the number of user defined methods of each type, in the order of
+		// getTypeNames()
+		public int[] getMethodCounts() {
+			return this.methodCounts == null ? null : this.methodCounts.clone();
+		}
+
+		// the number of user defined methods over all types of the unit
+		public int getNumberOfUserMethods() {
+			int total = 0;
+			for (int i = 0; i < this.methodCounts.length; i++)
+				total += this.methodCounts[i];
+			return total;
+		}
+	}// end Entry
+
+}// end MetricsCache
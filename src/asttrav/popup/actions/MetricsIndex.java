@@ -0,0 +1,473 @@
+package asttrav.popup.actions;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import asttrav.callgraph.MethodKeyTable;
+
+// ---
+// A read-only, memory-mapped file of per compilation unit metrics. All
+// records have a fixed width and strings live in a symbol table with an
+// offset table and a hash table, so a lookup by handle is a few probes
+// into the mapping and a full scan walks the unit records in order. None
+// of it is copied onto the Java heap; the operating system's page cache
+// holds whatever is in use. Opening an index maps the file, nothing is
+// parsed or rebuilt.
+//
+// Layout, all integers big endian:
+//
+//   header   64 bytes   magic, version, unit, type, method, symbol,
+//                       slot and method key counts, blob size
+//   units    64 bytes   stamp(8) sha1(20) handle nodes calls firstType
+//                       typeCount firstMethod methodCount references
+//                       creations (4 each)
+//   types    12 bytes   unit name methods
+//   methods  12 bytes   nameOffset calls key
+//   offsets  4 bytes    symbolCount + 1 offsets into the blob
+//   slots    4 bytes    open addressing table of symbol IDs, -1 empty
+//   blob                the UTF-8 bytes of all symbols
+//
+// Symbols 0 .. methodKeyCount - 1 are the method keys of the call graph in
+// MethodKeyTable ID order, so a method ID is also its symbol ID. The key of
+// a method record is the symbol of its IMethod key, -1 if it is unknown;
+// both are JDT method keys, so for a method of the call graph it is its
+// method ID. Units are written in ascending order of their handle symbol,
+// which lets a handle be found by a binary search once its symbol is
+// known. A count of -1 in a unit record means that part was not computed,
+// as in MetricsCache.
+//
+// The whole file must stay below 2 GB, the limit of a single mapping;
+// 64 bytes per unit leaves room for millions of units.
+// ---
+public class MetricsIndex {
+	private static final int MAGIC = 0x41535449; // "ASTI"
+	// 2: MyVisitor descends into the Java 5 and 8 constructs
+	// 3: method references and object creations per unit
+	private static final int VERSION = 3;
+
+	private static final int HEADER_SIZE = 64;
+	private static final int UNIT_SIZE = 64;
+	private static final int TYPE_SIZE = 12;
+	private static final int METHOD_SIZE = 12;
+	private static final int HASH_SIZE = 20;
+	private static final int EMPTY = -1;
+
+	// offsets inside a unit record
+	private static final int U_STAMP = 0;
+	private static final int U_HASH = 8;
+	private static final int U_HANDLE = 28;
+	private static final int U_NODES = 32;
+	private static final int U_CALLS = 36;
+	private static final int U_FIRST_TYPE = 40;
+	private static final int U_TYPES = 44;
+	private static final int U_FIRST_METHOD = 48;
+	private static final int U_METHODS = 52;
+	private static final int U_REFERENCES = 56;
+	private static final int U_CREATIONS = 60;
+
+	private final MappedByteBuffer map;
+	private final int unitCount;
+	private final int typeCount;
+	private final int methodCount;
+	private final int symbolCount;
+	private final int slotCount;
+	private final int methodKeyCount;
+	private final int units;
+	private final int types;
+	private final int methods;
+	private final int offsets;
+	private final int slots;
+	private final int blob;
+
+	private MetricsIndex(MappedByteBuffer map) throws IOException {
+		this.map = map;
+		if (map.capacity() < HEADER_SIZE || map.getInt(0) != MAGIC
+				|| map.getInt(4) != VERSION)
+			throw new IOException("Not a metrics index");
+		this.unitCount = map.getInt(8);
+		this.typeCount = map.getInt(12);
+		this.methodCount = map.getInt(16);
+		this.symbolCount = map.getInt(20);
+		this.slotCount = map.getInt(24);
+		this.methodKeyCount = map.getInt(28);
+		long blobSize = map.getLong(32);
+		this.units = HEADER_SIZE;
+		this.types = this.units + this.unitCount * UNIT_SIZE;
+		this.methods = this.types + this.typeCount * TYPE_SIZE;
+		this.offsets = this.methods + this.methodCount * METHOD_SIZE;
+		this.slots = this.offsets + (this.symbolCount + 1) * 4;
+		this.blob = this.slots + this.slotCount * 4;
+		if (this.blob + blobSize != map.capacity())
+			throw new IOException("Truncated metrics index");
+	}
+
+	// ---
+	// Maps the index in the given file
+	// ---
+	public static MetricsIndex open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Metrics index too large to map");
+			return new MetricsIndex(channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size()));
+		}
+	}
+
+	public int getNumberOfUnits() {
+		return this.unitCount;
+	}
+
+	public int getNumberOfMethodKeys() {
+		return this.methodKeyCount;
+	}
+
+	// ---
+	// Returns the index of the unit with the given handle, or -1
+	// ---
+	public int findUnit(String handle) {
+		int symbol = findSymbol(handle);
+		if (symbol < 0)
+			return -1;
+		int low = 0;
+		int high = this.unitCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int s = unitInt(mid, U_HANDLE);
+			if (s < symbol)
+				low = mid + 1;
+			else if (s > symbol)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}// end findUnit(String handle)
+
+	public String getHandle(int unit) {
+		return getSymbol(unitInt(unit, U_HANDLE));
+	}
+
+	public long getStamp(int unit) {
+		return this.map.getLong(this.units + unit * UNIT_SIZE + U_STAMP);
+	}
+
+	public int getNumberOfNodes(int unit) {
+		return unitInt(unit, U_NODES);
+	}
+
+	public int getNumberOfMethodCalls(int unit) {
+		return unitInt(unit, U_CALLS);
+	}
+
+	// ---
+	// Sums the nodes and calls of all units by walking the unit records
+	// in file order; units whose counts were not computed are skipped
+	// ---
+	public long[] getTotals() {
+		long nodes = 0;
+		long calls = 0;
+		for (int u = 0; u < this.unitCount; u++) {
+			int n = unitInt(u, U_NODES);
+			if (n < 0)
+				continue;
+			nodes += n;
+			calls += unitInt(u, U_CALLS);
+		}
+		return new long[] { nodes, calls };
+	}
+
+	// ---
+	// Returns the method key with the given method ID
+	// ---
+	public String getMethodKey(int id) {
+		if (id < 0 || id >= this.methodKeyCount)
+			throw new IndexOutOfBoundsException("no method with ID " + id);
+		return getSymbol(id);
+	}
+
+	// ---
+	// Returns the method ID of the key, or -1
+	// ---
+	public int findMethodKey(String key) {
+		int symbol = findSymbol(key);
+		return symbol < this.methodKeyCount ? symbol : -1;
+	}
+
+	// ---
+	// Reads the unit record into a cache entry
+	// ---
+	MetricsCache.Entry getEntry(int unit) {
+		int base = this.units + unit * UNIT_SIZE;
+		byte[] hash = new byte[HASH_SIZE];
+		for (int i = 0; i < HASH_SIZE; i++)
+			hash[i] = this.map.get(base + U_HASH + i);
+		String[] typeNames = null;
+		int[] methodCounts = null;
+		int numTypes = unitInt(unit, U_TYPES);
+		if (numTypes >= 0) {
+			int first = unitInt(unit, U_FIRST_TYPE);
+			typeNames = new String[numTypes];
+			methodCounts = new int[numTypes];
+			for (int t = 0; t < numTypes; t++) {
+				int record = this.types + (first + t) * TYPE_SIZE;
+				typeNames[t] = getSymbol(this.map.getInt(record + 4));
+				methodCounts[t] = this.map.getInt(record + 8);
+			}
+		}
+		int[] callOffsets = null;
+		int[] callCounts = null;
+		String[] callKeys = null;
+		int numMethods = unitInt(unit, U_METHODS);
+		if (numMethods >= 0) {
+			int first = unitInt(unit, U_FIRST_METHOD);
+			callOffsets = new int[numMethods];
+			callCounts = new int[numMethods];
+			callKeys = new String[numMethods];
+			for (int m = 0; m < numMethods; m++) {
+				int record = this.methods + (first + m) * METHOD_SIZE;
+				callOffsets[m] = this.map.getInt(record);
+				callCounts[m] = this.map.getInt(record + 4);
+				int key = this.map.getInt(record + 8);
+				if (key != EMPTY)
+					callKeys[m] = getSymbol(key);
+			}
+		}
+		return new MetricsCache.Entry(getStamp(unit), hash, getNumberOfNodes(unit),
+				getNumberOfMethodCalls(unit), unitInt(unit, U_REFERENCES),
+				unitInt(unit, U_CREATIONS), typeNames, methodCounts,
+				callOffsets, callCounts, callKeys);
+	}// end getEntry(int unit)
+
+	private int unitInt(int unit, int field) {
+		if (unit < 0 || unit >= this.unitCount)
+			throw new IndexOutOfBoundsException("no unit " + unit);
+		return this.map.getInt(this.units + unit * UNIT_SIZE + field);
+	}
+
+	private String getSymbol(int symbol) {
+		int start = this.map.getInt(this.offsets + symbol * 4);
+		int end = this.map.getInt(this.offsets + (symbol + 1) * 4);
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = this.map.get(this.blob + start + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	// probes the symbol hash table, comparing the UTF-8 bytes in place
+	private int findSymbol(String value) {
+		if (this.slotCount == 0)
+			return -1;
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		int mask = this.slotCount - 1;
+		int slot = mix(value.hashCode()) & mask;
+		while (true) {
+			int symbol = this.map.getInt(this.slots + slot * 4);
+			if (symbol == EMPTY)
+				return -1;
+			if (symbolEquals(symbol, bytes))
+				return symbol;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private boolean symbolEquals(int symbol, byte[] bytes) {
+		int start = this.map.getInt(this.offsets + symbol * 4);
+		int end = this.map.getInt(this.offsets + (symbol + 1) * 4);
+		if (end - start != bytes.length)
+			return false;
+		for (int i = 0; i < bytes.length; i++) {
+			if (this.map.get(this.blob + start + i) != bytes[i])
+				return false;
+		}
+		return true;
+	}
+
+	private static int mix(int hash) {
+		int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	// ---
+	// Collects units and writes them out in the index format. Units may
+	// be added in any order; they are sorted by handle symbol on write.
+	// ---
+	public static class Writer {
+		private final MethodKeyTable symbols = new MethodKeyTable();
+		private final List<String> handles = new ArrayList<>();
+		private final List<MetricsCache.Entry> entries = new ArrayList<>();
+		private int methodKeyCount;
+
+		// ---
+		// Makes the method keys of a call graph the first symbols, so
+		// their IDs carry over. Must be called before any unit is added.
+		// ---
+		public Writer setMethodKeys(MethodKeyTable keys) {
+			if (!this.handles.isEmpty() || this.symbols.size() > 0)
+				throw new IllegalStateException("method keys must come first");
+			for (int id = 0; id < keys.size(); id++)
+				this.symbols.intern(keys.getKey(id));
+			this.methodKeyCount = keys.size();
+			return this;
+		}
+
+		public Writer addUnit(String handle, MetricsCache.Entry entry) {
+			this.handles.add(handle);
+			this.entries.add(entry);
+			return this;
+		}
+
+		public void write(Path file) throws IOException {
+			int n = this.handles.size();
+			int[] handleSymbols = new int[n];
+			int[][] typeSymbols = new int[n][];
+			int[][] keySymbols = new int[n][];
+			for (int u = 0; u < n; u++) {
+				handleSymbols[u] = this.symbols.intern(this.handles.get(u));
+				String[] typeNames = this.entries.get(u).getTypeNames();
+				if (typeNames != null) {
+					typeSymbols[u] = new int[typeNames.length];
+					for (int t = 0; t < typeNames.length; t++)
+						typeSymbols[u][t] = this.symbols.intern(typeNames[t]);
+				}
+				keySymbols[u] = keySymbols(this.entries.get(u));
+			}
+			// units in ascending handle symbol order for the binary search
+			Integer[] order = new Integer[n];
+			for (int u = 0; u < n; u++)
+				order[u] = u;
+			Arrays.sort(order, (a, b) -> Integer.compare(handleSymbols[a],
+					handleSymbols[b]));
+
+			int numTypes = 0;
+			int numMethods = 0;
+			for (int u = 0; u < n; u++) {
+				MetricsCache.Entry entry = this.entries.get(u);
+				if (entry.hasMethodCounts())
+					numTypes += typeSymbols[u].length;
+				if (entry.hasMethodCallCounts())
+					numMethods += entry.getCallOffsets().length;
+			}
+
+			int symbolCount = this.symbols.size();
+			byte[][] utf8 = new byte[symbolCount][];
+			long blobSize = 0;
+			for (int s = 0; s < symbolCount; s++) {
+				utf8[s] = this.symbols.getKey(s).getBytes(StandardCharsets.UTF_8);
+				blobSize += utf8[s].length;
+			}
+			int slotCount = symbolCount == 0 ? 0 : Integer
+					.highestOneBit(symbolCount * 2 - 1) << 1;
+			int[] slotTable = new int[slotCount];
+			Arrays.fill(slotTable, EMPTY);
+			for (int s = 0; s < symbolCount; s++) {
+				int slot = mix(this.symbols.getKey(s).hashCode())
+						& (slotCount - 1);
+				while (slotTable[slot] != EMPTY)
+					slot = (slot + 1) & (slotCount - 1);
+				slotTable[slot] = s;
+			}
+			long total = HEADER_SIZE + (long) n * UNIT_SIZE + (long) numTypes
+					* TYPE_SIZE + (long) numMethods * METHOD_SIZE
+					+ (symbolCount + 1L) * 4 + slotCount * 4L + blobSize;
+			if (total > Integer.MAX_VALUE)
+				throw new IOException("Metrics index would exceed 2 GB");
+
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(n);
+				out.writeInt(numTypes);
+				out.writeInt(numMethods);
+				out.writeInt(symbolCount);
+				out.writeInt(slotCount);
+				out.writeInt(this.methodKeyCount);
+				out.writeLong(blobSize);
+				out.write(new byte[HEADER_SIZE - 40]);
+
+				int firstType = 0;
+				int firstMethod = 0;
+				for (int i = 0; i < n; i++) {
+					int u = order[i];
+					MetricsCache.Entry entry = this.entries.get(u);
+					out.writeLong(entry.getStamp());
+					byte[] hash = Arrays.copyOf(entry.getHash(), HASH_SIZE);
+					out.write(hash);
+					out.writeInt(handleSymbols[u]);
+					out.writeInt(entry.getNumberOfNodes());
+					out.writeInt(entry.getNumberOfMethodCalls());
+					int types = entry.hasMethodCounts() ? typeSymbols[u].length : -1;
+					int calls = entry.hasMethodCallCounts() ? entry
+							.getCallOffsets().length : -1;
+					out.writeInt(firstType);
+					out.writeInt(types);
+					out.writeInt(firstMethod);
+					out.writeInt(calls);
+					out.writeInt(entry.getNumberOfMethodReferences());
+					out.writeInt(entry.getNumberOfObjectCreations());
+					firstType += Math.max(0, types);
+					firstMethod += Math.max(0, calls);
+				}
+				for (int i = 0; i < n; i++) {
+					int u = order[i];
+					MetricsCache.Entry entry = this.entries.get(u);
+					if (!entry.hasMethodCounts())
+						continue;
+					int[] counts = entry.getMethodCounts();
+					for (int t = 0; t < counts.length; t++) {
+						out.writeInt(i);
+						out.writeInt(typeSymbols[u][t]);
+						out.writeInt(counts[t]);
+					}
+				}
+				for (int i = 0; i < n; i++) {
+					int u = order[i];
+					MetricsCache.Entry entry = this.entries.get(u);
+					if (!entry.hasMethodCallCounts())
+						continue;
+					int[] offsets = entry.getCallOffsets();
+					int[] counts = entry.getCallCounts();
+					for (int m = 0; m < offsets.length; m++) {
+						out.writeInt(offsets[m]);
+						out.writeInt(counts[m]);
+						out.writeInt(keySymbols[u][m]);
+					}
+				}
+				int offset = 0;
+				for (int s = 0; s < symbolCount; s++) {
+					out.writeInt(offset);
+					offset += utf8[s].length;
+				}
+				out.writeInt(offset);
+				for (int s = 0; s < slotCount; s++)
+					out.writeInt(slotTable[s]);
+				for (int s = 0; s < symbolCount; s++)
+					out.write(utf8[s]);
+			}
+		}// end write(Path file)
+
+		// the symbols of the entry's method keys, EMPTY where there is none
+		private int[] keySymbols(MetricsCache.Entry entry) {
+			if (!entry.hasMethodCallCounts())
+				return null;
+			String[] keys = entry.getCallKeys();
+			int[] result = new int[entry.getCallOffsets().length];
+			for (int m = 0; m < result.length; m++)
+				result[m] = keys == null || keys[m] == null ? EMPTY
+						: this.symbols.intern(keys[m]);
+			return result;
+		}
+	}// end Writer
+
+}// end MetricsIndex
@@ -58,18 +58,49 @@ package asttrav.popup.actions;
  * Window - Preferences - Java - Code Style - Code Templates
  */
 
+import java.util.Arrays;
+
 import org.eclipse.jdt.core.dom.*;
 import org.eclipse.jdt.core.IMethod;
-
+import org.eclipse.jdt.core.ISourceRange;
+import org.eclipse.jdt.core.JavaModelException;
+
+// ---
+// CountingVisitor makes the same counts from a table indexed by node
+// type. If you change which nodes are pruned or counted here, change its
+// tables too.
+// ---
 public class MyVisitor extends ASTVisitor {
 	private IMethod mainMeth;
 	private int numCalls = 0;
 	private int numNodes = 0;
+	private int numReferences = 0;
+	private int numCreations = 0;
+
+	// ---
+	// The calls made from each method declaration, keyed by the source
+	// offset of the method's name (which is also where ISourceRange of
+	// IMethod.getNameRange() starts). The stack holds the keys of the
+	// declarations we are currently inside, innermost last, so a call in
+	// a method of an anonymous class counts for that method only.
+	// ---
+	private final IntIntMap callsPerMethod = new IntIntMap();
+	private int[] methodStack = new int[8];
+	private int methodDepth = 0;
 
 	public MyVisitor() {
 		super();
 	}
 
+	// ---
+	// A visitor that can also answer for the given method directly, see
+	// getNumberOfMethodCallsInMainMethod
+	// ---
+	public MyVisitor(IMethod mainMeth) {
+		super();
+		this.mainMeth = mainMeth;
+	}
+
 	// ---
 	// This returns the number of nodes that was encountered by
 	// this visitor
@@ -86,6 +117,65 @@ public class MyVisitor extends ASTVisitor {
 		return this.numCalls;
 	}
 
+	// ---
+	// This returns the number of method and constructor references
+	// (String::length, ArrayList::new, ...) counted by this visitor
+	// ---
+	public int getNumberOfMethodReferences() {
+		return this.numReferences;
+	}
+
+	// ---
+	// This returns the number of class instance creations (new X())
+	// counted by this visitor
+	// ---
+	public int getNumberOfObjectCreations() {
+		return this.numCreations;
+	}
+
+	// ---
+	// This returns the number of method invocations made from the
+	// method declaration whose name starts at the given offset, or 0 if
+	// there is no such declaration or it makes no calls
+	// ---
+	public int getNumberOfMethodCalls(int nameOffset) {
+		return this.callsPerMethod.get(nameOffset, 0);
+	}
+
+	// ---
+	// This returns the number of method invocations made from the
+	// method given to the constructor, or -1 if there was none or its
+	// source range is unknown
+	// ---
+	public int getNumberOfMethodCallsInMainMethod() {
+		if (this.mainMeth == null)
+			return -1;
+		try {
+			ISourceRange range = this.mainMeth.getNameRange();
+			if (range == null || range.getOffset() < 0)
+				return -1;
+			return getNumberOfMethodCalls(range.getOffset());
+		} catch (JavaModelException ex) {
+			ex.printStackTrace();
+			return -1;
+		}
+	}
+
+	// ---
+	// This returns the calls made from every method declaration that made
+	// at least one, keyed by the offset of the method's name
+	// ---
+	public IntIntMap getMethodCallCounts() {
+		return this.callsPerMethod;
+	}
+
+	// counts one call for the file and for the enclosing method
+	private void countCall() {
+		this.numCalls++;
+		if (this.methodDepth > 0)
+			this.callsPerMethod.increment(this.methodStack[this.methodDepth - 1]);
+	}
+
 	public void preVisit(ASTNode node) {
 		super.preVisit(node);
 	}
@@ -133,8 +223,12 @@ public class MyVisitor extends ASTVisitor {
 		return visitNode(node);
 	}
 
+	// ---
+	// new X() is counted apart from the calls, see
+	// getNumberOfObjectCreations
+	// ---
 	public boolean visit(ClassInstanceCreation node) {
-
+		this.numCreations++;
 		return visitNode(node);
 	}
 
@@ -151,7 +245,7 @@ public class MyVisitor extends ASTVisitor {
 	// methods thus we need to increment numCalls
 	// ---
 	public boolean visit(ConstructorInvocation node) {
-		this.numCalls++;
+		countCall();
 		return visitNode(node);
 	}
 
@@ -176,15 +270,24 @@ public class MyVisitor extends ASTVisitor {
 	}
 
 	public boolean visit(MethodDeclaration node) {
+		if (this.methodDepth == this.methodStack.length)
+			this.methodStack = Arrays.copyOf(this.methodStack,
+					this.methodDepth * 2);
+		this.methodStack[this.methodDepth++] = node.getName()
+				.getStartPosition();
 		return visitNode(node);
 	}
 
+	public void endVisit(MethodDeclaration node) {
+		this.methodDepth--;
+	}
+
 	// ---
 	// This node is of type MethodInvocation thus
 	// this is one method call for this class file
 	// ---
 	public boolean visit(MethodInvocation node) {
-		this.numCalls++;
+		countCall();
 		return visitNode(node);
 	}
 
@@ -228,7 +331,7 @@ public class MyVisitor extends ASTVisitor {
 	// Yup we're counting calls to super() as well
 	// ---
 	public boolean visit(SuperConstructorInvocation node) {
-		this.numCalls++;
+		countCall();
 		return visitNode(node);
 	}
 
@@ -240,7 +343,7 @@ public class MyVisitor extends ASTVisitor {
 	// super.X() counts as well
 	// ---
 	public boolean visit(SuperMethodInvocation node) {
-		this.numCalls++;
+		countCall();
 		return visitNode(node);
 	}
 
@@ -404,52 +507,95 @@ public class MyVisitor extends ASTVisitor {
 		return false; // comments
 	}
 
+	// ---
+	// The Java 5 constructs. Calls hide in for-each loops, enum constant
+	// arguments and bodies, and annotation type members; the others are
+	// cheap to walk, so every one of them is descended into.
+	// ---
 	public boolean visit(AnnotationTypeDeclaration node) {
-		return false; // 1.5
+		return visitNode(node);
 	}
 
 	public boolean visit(AnnotationTypeMemberDeclaration node) {
-		return false; // 1.5
+		return visitNode(node);
 	}
 
 	public boolean visit(WildcardType node) {
-		return false; // Java2 1.5
+		return visitNode(node);
 	}
 
 	public boolean visit(SingleMemberAnnotation node) {
-		return false; // Java2 1.5
+		return visitNode(node);
 	}
 
 	public boolean visit(ParameterizedType node) {
-		return false;
+		return visitNode(node);
 	}
 
 	public boolean visit(EnhancedForStatement node) {
-		return false; // 1.5
+		return visitNode(node);
 	}
 
 	public boolean visit(MarkerAnnotation node) {
-		return false; // 1.5
+		return visitNode(node);
 	}
 
 	public boolean visit(NormalAnnotation node) {
-		return false; // 1.5
+		return visitNode(node);
 	}
 
 	public boolean visit(TypeParameter node) {
-		return false; // 1.5
+		return visitNode(node);
 	}
 
 	public boolean visit(MemberValuePair node) {
-		return false; // 1.5
+		return visitNode(node);
 	}
 
 	public boolean visit(EnumConstantDeclaration node) {
-		return false; // 1.5
+		return visitNode(node);
 	}
 
 	public boolean visit(EnumDeclaration node) {
-		return false; // 1.5
+		return visitNode(node);
+	}
+
+	// ---
+	// The Java 8 constructs. A call in a lambda body counts for the method
+	// the lambda is written in. Node types added after JLS8 (switch
+	// expressions, records, ...) have no override here and are descended
+	// into by ASTVisitor's default.
+	// ---
+	public boolean visit(LambdaExpression node) {
+		return visitNode(node);
+	}
+
+	public boolean visit(CreationReference node) {
+		this.numReferences++;
+		return visitNode(node);
+	}
+
+	public boolean visit(ExpressionMethodReference node) {
+		this.numReferences++;
+		return visitNode(node);
+	}
+
+	public boolean visit(SuperMethodReference node) {
+		this.numReferences++;
+		return visitNode(node);
+	}
+
+	public boolean visit(TypeMethodReference node) {
+		this.numReferences++;
+		return visitNode(node);
+	}
+
+	public boolean visit(IntersectionType node) {
+		return visitNode(node);
+	}
+
+	public boolean visit(UnionType node) {
+		return visitNode(node);
 	}
 
 	// There are corresponding endVisit methods
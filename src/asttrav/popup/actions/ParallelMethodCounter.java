@@ -0,0 +1,247 @@
+package asttrav.popup.actions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaModelException;
+
+import asttrav.stats.AnalysisStats;
+import asttrav.stats.Stage;
+
+// ---
+// Counts the user defined methods of a set of Java projects on a bounded
+// fork-join pool. The work is split first by project and then by source
+// package fragment, so every compilation unit is opened by exactly one
+// task. Each fragment task sums its own units and adds that partial sum to
+// a shared LongAdder once, which keeps the workers from contending on a
+// single counter.
+//
+// Only read operations are made on the Java model. These are safe from
+// any thread, JDT serialises the opening of elements internally, and none
+// of them needs a workspace scheduling rule, so the workers cannot
+// deadlock against a job holding one.
+// ---
+public class ParallelMethodCounter {
+
+	// how often the calling thread wakes up to poll the monitor
+	private static final long POLL_MILLIS = 100;
+
+	private final int parallelism;
+	// the per unit method counts of earlier runs, may be null
+	private final MetricsCache cache;
+
+	public ParallelMethodCounter() {
+		this((MetricsCache) null);
+	}
+
+	public ParallelMethodCounter(MetricsCache cache) {
+		this(Runtime.getRuntime().availableProcessors(), cache);
+	}
+
+	public ParallelMethodCounter(int parallelism, MetricsCache cache) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be positive");
+		this.parallelism = parallelism;
+		this.cache = cache;
+	}
+
+	// ---
+	// Returns the number of user defined methods in the given projects.
+	// The calling thread reports progress to the monitor and cancels the
+	// workers when the monitor is canceled, in which case an
+	// OperationCanceledException is thrown. The monitor may be null.
+	// ---
+	public int count(List<IJavaProject> projects, IProgressMonitor monitor) {
+		SubMonitor progress = SubMonitor.convert(monitor,
+				"Counting user defined methods", projects.size());
+		LongAdder total = new LongAdder();
+		AtomicInteger projectsDone = new AtomicInteger();
+		CancelFlag canceled = new CancelFlag();
+
+		List<ProjectTask> tasks = new ArrayList<>(projects.size());
+		for (IJavaProject project : projects)
+			tasks.add(new ProjectTask(project, cache, total, projectsDone,
+					canceled));
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			ForkJoinTask<?> root = pool.submit(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+			int reported = 0;
+			while (true) {
+				try {
+					root.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+					break;
+				} catch (TimeoutException ex) {
+					// still running, fall through and poll the monitor
+				}
+				if (progress.isCanceled()) {
+					canceled.set();
+					root.cancel(true);
+					throw new OperationCanceledException();
+				}
+				int done = projectsDone.get();
+				progress.worked(done - reported);
+				reported = done;
+			}
+			progress.worked(projectsDone.get() - reported);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new OperationCanceledException();
+		} catch (ExecutionException ex) {
+			ex.printStackTrace();
+		} finally {
+			pool.shutdownNow();
+			if (monitor != null)
+				monitor.done();
+		}
+		return total.intValue();
+	}// end count(List<IJavaProject> projects, IProgressMonitor monitor)
+
+	// ---
+	// Returns the number of user defined methods declared in a single
+	// compilation unit, including those of nested and local types. When a
+	// cache is given, unchanged units are answered from it and the per type
+	// counts of the others are stored in it.
+	// ---
+	static int countUserMethods(ICompilationUnit unit, MetricsCache cache)
+			throws JavaModelException {
+		if (cache != null) {
+			MetricsCache.Entry entry = cache.lookup(unit);
+			if (entry != null && entry.hasMethodCounts())
+				return entry.getNumberOfUserMethods();
+		}
+		long t = AnalysisStats.start();
+		int count = 0;
+		IType[] allTypes = unit.getAllTypes();
+		String[] typeNames = new String[allTypes.length];
+		int[] methodCounts = new int[allTypes.length];
+		for (int tc = 0; tc < allTypes.length; tc++) {
+			IMethod[] im = allTypes[tc].getMethods();
+			typeNames[tc] = allTypes[tc].getFullyQualifiedName();
+			for (int mc = 0; mc < im.length; mc++) {
+				if (!im[mc].isBinary())
+					methodCounts[tc]++;
+			}
+			count += methodCounts[tc];
+		}
+		AnalysisStats.stop(Stage.MODEL_WALK, t);
+		if (cache != null)
+			cache.storeMethodCounts(unit, typeNames, methodCounts);
+		return count;
+	}// end countUserMethods(ICompilationUnit unit, MetricsCache cache)
+
+	// the IProgressMonitor is not thread safe so the workers look at this
+	private static final class CancelFlag {
+		private volatile boolean set;
+
+		void set() {
+			this.set = true;
+		}
+
+		boolean isSet() {
+			return this.set;
+		}
+	}
+
+	// ---
+	// Forks one FragmentTask per source package fragment of a project
+	// ---
+	private static final class ProjectTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final IJavaProject project;
+		private final MetricsCache cache;
+		private final LongAdder total;
+		private final AtomicInteger projectsDone;
+		private final CancelFlag canceled;
+
+		ProjectTask(IJavaProject project, MetricsCache cache, LongAdder total,
+				AtomicInteger projectsDone, CancelFlag canceled) {
+			this.project = project;
+			this.cache = cache;
+			this.total = total;
+			this.projectsDone = projectsDone;
+			this.canceled = canceled;
+		}
+
+		protected void compute() {
+			try {
+				if (canceled.isSet())
+					return;
+				IPackageFragment[] pfrag = project.getPackageFragments();
+				List<FragmentTask> fragments = new ArrayList<>(pfrag.length);
+				for (int k = 0; k < pfrag.length; k++) {
+					if (pfrag[k].getKind() == IPackageFragmentRoot.K_SOURCE)
+						fragments.add(new FragmentTask(pfrag[k], cache, total,
+								canceled));
+				}
+				invokeAll(fragments);
+			} catch (JavaModelException ex) {
+				ex.printStackTrace();
+			} finally {
+				projectsDone.incrementAndGet();
+			}
+		}
+	}// end ProjectTask
+
+	// ---
+	// Counts the methods of every compilation unit in one package fragment
+	// into a local partial sum and publishes it with a single add
+	// ---
+	private static final class FragmentTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final IPackageFragment fragment;
+		private final MetricsCache cache;
+		private final LongAdder total;
+		private final CancelFlag canceled;
+
+		FragmentTask(IPackageFragment fragment, MetricsCache cache,
+				LongAdder total, CancelFlag canceled) {
+			this.fragment = fragment;
+			this.cache = cache;
+			this.total = total;
+			this.canceled = canceled;
+		}
+
+		protected void compute() {
+			int partial = 0;
+			try {
+				ICompilationUnit[] icu = fragment.getCompilationUnits();
+				for (int y = 0; y < icu.length; y++) {
+					if (canceled.isSet())
+						return;
+					partial += countUserMethods(icu[y], cache);
+				}
+			} catch (JavaModelException ex) {
+				ex.printStackTrace();
+			} finally {
+				total.add(partial);
+			}
+		}
+	}// end FragmentTask
+
+}// end ParallelMethodCounter
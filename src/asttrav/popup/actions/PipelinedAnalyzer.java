@@ -0,0 +1,346 @@
+package asttrav.popup.actions;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
+
+import asttrav.popup.actions.ProjectAnalyzer.ProjectMetrics;
+import asttrav.stats.AnalysisStats;
+import asttrav.stats.Stage;
+
+// ---
+// Runs the MyVisitor counts over the source compilation units of a project
+// as a two stage pipeline. Loading a unit (waiting on the Java model,
+// reading its file, checking the cache) is mostly waiting, parsing and
+// visiting it is all CPU, so the two get different threads:
+//
+// - every load runs as its own task on a virtual thread when the JVM has
+//   them (Java 21 and later, found by reflection since the plug-in itself
+//   targets Java 8), on a small pool of platform threads otherwise;
+// - one parser per processor, each a platform thread with its own
+//   ASTParser and CountingVisitor, takes the loaded sources off a bounded
+//   queue.
+//
+// A semaphore caps the number of units that are loaded but not yet parsed,
+// and the MemoryBudget of the options the number of ASTs alive at once.
+// The submitting thread takes a permit before it starts a load and a
+// parser gives it back once it is done with the source, so however many
+// loads could run at once, no more than that many sources are in memory
+// and a slow parser stage holds the loaders back.
+//
+// A unit that fails to parse or visit, a StackOverflowError on a very
+// deep file included, is reported and skipped by its parser. Any other
+// Error ends that parser; the run then stops as it would on cancel and
+// rethrows it, rather than wait for a parser that is gone.
+// ---
+public class PipelinedAnalyzer {
+	// how often the submitting thread wakes up to poll the monitor
+	private static final long POLL_MILLIS = 100;
+	// the number of loader threads when there are no virtual threads
+	private static final int PLATFORM_LOADERS = 4;
+
+	private static final Method NEW_VIRTUAL_EXECUTOR = findVirtualExecutor();
+
+	// tells a parser there is nothing more to come
+	private static final Loaded END = new Loaded(null, null);
+
+	private final AnalysisOptions options;
+	// the per unit metrics of earlier runs, may be null
+	private final MetricsCache cache;
+	private final int parsers;
+	private final int inFlight;
+
+	public PipelinedAnalyzer(AnalysisOptions options, MetricsCache cache) {
+		this(options, cache, Runtime.getRuntime().availableProcessors());
+	}
+
+	// ---
+	// parsers is the number of parser threads; twice as many sources may
+	// be loaded ahead of them
+	// ---
+	public PipelinedAnalyzer(AnalysisOptions options, MetricsCache cache,
+			int parsers) {
+		if (parsers < 1)
+			throw new IllegalArgumentException("parsers must be positive");
+		this.options = options;
+		this.cache = cache;
+		this.parsers = parsers;
+		this.inFlight = parsers * 2;
+	}
+
+	// true if loads run on virtual threads in this JVM
+	public static boolean hasVirtualThreads() {
+		return NEW_VIRTUAL_EXECUTOR != null;
+	}
+
+	// ---
+	// Returns the metrics of every source compilation unit in the project.
+	// Throws an OperationCanceledException when the monitor is canceled,
+	// and the Error that ended a parser if one did; the monitor may be
+	// null.
+	// ---
+	public ProjectMetrics analyze(final IJavaProject project,
+			IProgressMonitor monitor) throws JavaModelException {
+		ICompilationUnit[] units = ProjectAnalyzer.getSourceUnits(project);
+		SubMonitor progress = SubMonitor.convert(monitor,
+				"Analysing " + project.getElementName(), units.length);
+		final ConcurrentLinkedQueue<UnitMetrics> results = new ConcurrentLinkedQueue<>();
+		final BlockingQueue<Loaded> queue = new ArrayBlockingQueue<>(inFlight
+				+ parsers);
+		final Semaphore permits = new Semaphore(inFlight);
+		final AtomicInteger done = new AtomicInteger();
+		final AtomicReference<Error> failure = new AtomicReference<>();
+
+		ExecutorService loaders = newLoaderExecutor();
+		List<Thread> workers = new ArrayList<>(parsers);
+		for (int i = 0; i < parsers; i++) {
+			// createAST recurses as deep as a file nests, see DeepStack
+			Thread worker = DeepStack.newThread(new Runnable() {
+				public void run() {
+					try {
+						parse(project, queue, permits, results, done);
+					} catch (Error ex) {
+						failure.compareAndSet(null, ex);
+					}
+				}
+			}, "AST parser " + i); //$NON-NLS-1$
+			worker.start();
+			workers.add(worker);
+		}
+		boolean canceled = false;
+		try {
+			int reported = 0;
+			for (int i = 0; i < units.length && !canceled; i++) {
+				// backpressure: wait for a parser to finish with a source
+				while (!permits.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+					if (progress.isCanceled() || failure.get() != null) {
+						canceled = true;
+						break;
+					}
+				}
+				if (canceled)
+					break;
+				final ICompilationUnit unit = units[i];
+				loaders.execute(new Runnable() {
+					public void run() {
+						load(unit, queue, permits, results, done);
+					}
+				});
+				int now = done.get();
+				progress.worked(now - reported);
+				reported = now;
+			}
+			loaders.shutdown();
+			while (!canceled
+					&& !loaders.awaitTermination(POLL_MILLIS,
+							TimeUnit.MILLISECONDS))
+				canceled = progress.isCanceled() || failure.get() != null;
+			for (int i = 0; i < parsers && !canceled; i++) {
+				while (!canceled
+						&& !queue.offer(END, POLL_MILLIS, TimeUnit.MILLISECONDS))
+					canceled = progress.isCanceled() || failure.get() != null;
+			}
+			for (Thread worker : workers) {
+				while (!canceled && worker.isAlive()) {
+					worker.join(POLL_MILLIS);
+					int now = done.get();
+					progress.worked(now - reported);
+					reported = now;
+					canceled = progress.isCanceled() || failure.get() != null;
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			canceled = true;
+		} finally {
+			if (canceled) {
+				loaders.shutdownNow();
+				for (Thread worker : workers)
+					worker.interrupt();
+			}
+			if (monitor != null)
+				monitor.done();
+		}
+		if (failure.get() != null)
+			throw failure.get();
+		if (canceled)
+			throw new OperationCanceledException();
+		return new ProjectMetrics(new ArrayList<>(results));
+	}// end analyze(IJavaProject project, IProgressMonitor monitor)
+
+	// ---
+	// The loader stage: answers the unit from the cache if it did not
+	// change, otherwise reads its source and queues it for a parser
+	// ---
+	private void load(ICompilationUnit unit, BlockingQueue<Loaded> queue,
+			Semaphore permits, ConcurrentLinkedQueue<UnitMetrics> results,
+			AtomicInteger done) {
+		boolean queued = false;
+		try {
+			MetricsCache.Entry entry = cache == null ? null : cache
+					.lookup(unit);
+			if (entry != null && entry.hasCounts()) {
+				results.add(new UnitMetrics(unit.getHandleIdentifier(), unit
+						.getElementName(), entry.getNumberOfNodes(), entry
+						.getNumberOfMethodCalls(), entry
+						.getNumberOfMethodReferences(), entry
+						.getNumberOfObjectCreations()));
+				done.incrementAndGet();
+				return;
+			}
+			long t = AnalysisStats.start();
+			String source = unit.getSource();
+			AnalysisStats.stop(Stage.SOURCE_READ, t);
+			if (source == null) {
+				done.incrementAndGet();
+				return;
+			}
+			queue.put(new Loaded(unit, source.toCharArray()));
+			queued = true;
+		} catch (JavaModelException ex) {
+			ex.printStackTrace();
+			done.incrementAndGet();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (!queued)
+				permits.release();
+		}
+	}// end load(ICompilationUnit unit, ...)
+
+	// ---
+	// The parser stage: parses and visits the queued sources until it is
+	// told to stop
+	// ---
+	private void parse(IJavaProject project, BlockingQueue<Loaded> queue,
+			Semaphore permits, ConcurrentLinkedQueue<UnitMetrics> results,
+			AtomicInteger done) {
+		ASTParser parser = options.newParser();
+		CountingVisitor visitor = new CountingVisitor();
+		IterativeWalker walker = new IterativeWalker();
+		MemoryBudget budget = options.getMemoryBudget();
+		try {
+			while (true) {
+				Loaded loaded = queue.take();
+				if (loaded == END)
+					return;
+				boolean released = false;
+				try {
+					options.configure(parser);
+					parser.setProject(project);
+					parser.setUnitName(loaded.unit.getPath().toString());
+					parser.setSource(loaded.source);
+					visitor.reset();
+					// the parser thread is interrupted on cancel
+					budget.acquire(null);
+					long mark = AnalysisStats.allocationMark();
+					try {
+						long t = AnalysisStats.start();
+						ASTNode ast = parser.createAST(null);
+						AnalysisStats.stop(Stage.PARSE, t);
+						t = AnalysisStats.start();
+						walker.walk(ast, visitor);
+						AnalysisStats.stop(Stage.VISIT, t);
+						AnalysisStats.fileDone(visitor.getNumberOfNodes(),
+								mark);
+					} finally {
+						// the tree is unreachable again
+						budget.release();
+					}
+					// the source is no longer needed, let the next one in
+					permits.release();
+					released = true;
+					results.add(new UnitMetrics(loaded.unit
+							.getHandleIdentifier(), loaded.unit
+							.getElementName(), visitor.getNumberOfNodes(),
+							visitor.getNumberOfMethodCalls(),
+							visitor.getNumberOfMethodReferences(),
+							visitor.getNumberOfObjectCreations()));
+					// counts without the method bodies are not the full ones
+					if (cache != null && !options.ignoreMethodBodies())
+						cache.storeCounts(loaded.unit,
+								visitor.getNumberOfNodes(),
+								visitor.getNumberOfMethodCalls(),
+								visitor.getNumberOfMethodReferences(),
+								visitor.getNumberOfObjectCreations());
+				} catch (OperationCanceledException ex) {
+					return;
+				} catch (JavaModelException | RuntimeException
+						| StackOverflowError ex) {
+					// one bad unit must not stop the worker; the recursion
+					// of createAST can overflow even the large stack
+					ex.printStackTrace();
+				} finally {
+					if (!released)
+						permits.release();
+					done.incrementAndGet();
+				}
+			}
+		} catch (InterruptedException ex) {
+			// canceled
+		}
+	}// end parse(IJavaProject project, ...)
+
+	// ---
+	// A task per load on virtual threads, or a few platform threads
+	// ---
+	private static ExecutorService newLoaderExecutor() {
+		if (NEW_VIRTUAL_EXECUTOR != null) {
+			try {
+				return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+			} catch (ReflectiveOperationException ex) {
+				ex.printStackTrace();
+			}
+		}
+		final AtomicInteger count = new AtomicInteger();
+		return Executors.newFixedThreadPool(PLATFORM_LOADERS,
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "AST source loader " //$NON-NLS-1$
+								+ count.getAndIncrement());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}// end newLoaderExecutor()
+
+	// Executors.newVirtualThreadPerTaskExecutor, or null before Java 21
+	private static Method findVirtualExecutor() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor"); //$NON-NLS-1$
+		} catch (NoSuchMethodException ex) {
+			return null;
+		}
+	}
+
+	// a unit and the source a loader read for it
+	private static final class Loaded {
+		final ICompilationUnit unit;
+		final char[] source;
+
+		Loaded(ICompilationUnit unit, char[] source) {
+			this.unit = unit;
+			this.source = source;
+		}
+	}
+
+}// end PipelinedAnalyzer
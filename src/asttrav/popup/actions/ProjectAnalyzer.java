@@ -0,0 +1,193 @@
+package asttrav.popup.actions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTRequestor;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+
+import asttrav.stats.AnalysisStats;
+import asttrav.stats.Stage;
+
+// ---
+// Runs the MyVisitor counts over every source compilation unit of a
+// project in a single ASTParser.createASTs batch. Unlike
+// InfoGatherer.getNumberOfMethodCalls, which builds a new parser for every
+// file, the batch shares one name environment and one binding lookup for
+// the whole project. Each AST is visited as soon as the parser hands it to
+// the requestor and is not referenced afterwards, so only the small
+// UnitMetrics records stay alive.
+// ---
+public class ProjectAnalyzer {
+
+	// decides how the parser is set up for the metrics we compute
+	private final AnalysisOptions options;
+	// the per unit metrics of earlier runs, may be null
+	private final MetricsCache cache;
+
+	public ProjectAnalyzer() {
+		this(AnalysisOptions.forVisitorCounts(), null);
+	}
+
+	public ProjectAnalyzer(AnalysisOptions options, MetricsCache cache) {
+		this.options = options;
+		this.cache = cache;
+	}
+
+	// ---
+	// Returns the metrics of every source compilation unit in the project.
+	// The monitor is handed to the parser; when it gets canceled an
+	// OperationCanceledException is thrown. The monitor may be null.
+	// ---
+	public ProjectMetrics analyze(IJavaProject project, IProgressMonitor monitor)
+			throws JavaModelException {
+		ICompilationUnit[] units = getSourceUnits(project);
+		final List<UnitMetrics> results = new ArrayList<>(units.length);
+
+		// ---
+		// Units that did not change since they were last analysed are
+		// answered from the cache, only the others go to the parser
+		// ---
+		List<ICompilationUnit> toParse = new ArrayList<>(units.length);
+		for (int i = 0; i < units.length; i++) {
+			MetricsCache.Entry entry = cache == null ? null : cache
+					.lookup(units[i]);
+			if (entry != null && entry.hasCounts())
+				results.add(new UnitMetrics(units[i].getHandleIdentifier(),
+						units[i].getElementName(), entry.getNumberOfNodes(),
+						entry.getNumberOfMethodCalls(), entry
+								.getNumberOfMethodReferences(), entry
+								.getNumberOfObjectCreations()));
+			else
+				toParse.add(units[i]);
+		}
+		if (toParse.isEmpty())
+			return new ProjectMetrics(results);
+
+		// one visitor for the whole batch, the requestor is called in turn
+		final CountingVisitor visitor = new CountingVisitor();
+		final IterativeWalker walker = new IterativeWalker();
+		final ASTParser parser = options.newParser();
+		parser.setProject(project);
+		final ICompilationUnit[] sources = toParse
+				.toArray(new ICompilationUnit[toParse.size()]);
+		// the batch counts as one AST in flight; each tree is dropped by
+		// the parser once the requestor returns
+		MemoryBudget budget = options.getMemoryBudget();
+		budget.acquire(monitor);
+		try {
+			// createASTs recurses as deep as a file nests, see DeepStack
+			DeepStack.run(() -> parser.createASTs(sources, new String[0],
+					new ASTRequestor() {
+						// the parser builds the next tree between two
+						// calls, so the time since the last one is its parse
+						private long parsed = AnalysisStats.start();
+						private long mark = AnalysisStats.allocationMark();
+
+						public void acceptAST(ICompilationUnit source,
+								CompilationUnit ast) {
+							AnalysisStats.stop(Stage.PARSE, parsed);
+							long t = AnalysisStats.start();
+							visitor.reset();
+							walker.walk(ast, visitor);
+							AnalysisStats.stop(Stage.VISIT, t);
+							AnalysisStats.fileDone(visitor.getNumberOfNodes(),
+									mark);
+							results.add(new UnitMetrics(source
+									.getHandleIdentifier(), source
+									.getElementName(), visitor
+									.getNumberOfNodes(), visitor
+									.getNumberOfMethodCalls(), visitor
+									.getNumberOfMethodReferences(), visitor
+									.getNumberOfObjectCreations()));
+							store(source, visitor);
+							parsed = AnalysisStats.start();
+							mark = AnalysisStats.allocationMark();
+						}
+					}, monitor));
+		} finally {
+			budget.release();
+		}
+		if (monitor != null && monitor.isCanceled())
+			throw new OperationCanceledException();
+		return new ProjectMetrics(results);
+	}// end analyze(IJavaProject project, IProgressMonitor monitor)
+
+	// ---
+	// Remembers the counts of a freshly parsed unit, unless the method
+	// bodies were skipped and they are not the full counts
+	// ---
+	private void store(ICompilationUnit source, CountingVisitor visitor) {
+		if (cache == null || options.ignoreMethodBodies())
+			return;
+		try {
+			cache.storeCounts(source, visitor.getNumberOfNodes(),
+					visitor.getNumberOfMethodCalls(),
+					visitor.getNumberOfMethodReferences(),
+					visitor.getNumberOfObjectCreations());
+		} catch (JavaModelException ex) {
+			ex.printStackTrace();
+		}
+	}// end store(ICompilationUnit source, CountingVisitor visitor)
+
+	// ---
+	// Returns the compilation units of all the source package fragments
+	// of the project, see InfoGatherer.getNumberOfUserMethods
+	// ---
+	public static ICompilationUnit[] getSourceUnits(IJavaProject project)
+			throws JavaModelException {
+		long t = AnalysisStats.start();
+		List<ICompilationUnit> units = new ArrayList<>();
+		IPackageFragment[] pfrag = project.getPackageFragments();
+		for (int k = 0; k < pfrag.length; k++) {
+			if (pfrag[k].getKind() != IPackageFragmentRoot.K_SOURCE)
+				continue;
+			Collections.addAll(units, pfrag[k].getCompilationUnits());
+		}
+		AnalysisStats.stop(Stage.MODEL_WALK, t);
+		return units.toArray(new ICompilationUnit[units.size()]);
+	}// end getSourceUnits(IJavaProject project)
+
+	// ---
+	// The per-unit metrics of one project together with their totals
+	// ---
+	public static class ProjectMetrics {
+		private final List<UnitMetrics> units;
+		private final long numNodes;
+		private final long numCalls;
+
+		public ProjectMetrics(List<UnitMetrics> units) {
+			this.units = Collections.unmodifiableList(units);
+			long nodes = 0;
+			long calls = 0;
+			for (UnitMetrics unit : units) {
+				nodes += unit.getNumberOfNodes();
+				calls += unit.getNumberOfMethodCalls();
+			}
+			this.numNodes = nodes;
+			this.numCalls = calls;
+		}
+
+		public List<UnitMetrics> getUnits() {
+			return this.units;
+		}
+
+		public long getNumberOfNodes() {
+			return this.numNodes;
+		}
+
+		public long getNumberOfMethodCalls() {
+			return this.numCalls;
+		}
+	}// end ProjectMetrics
+
+}// end ProjectAnalyzer
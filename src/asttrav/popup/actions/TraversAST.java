@@ -1,5 +1,11 @@
 package asttrav.popup.actions;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.action.IAction;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.viewers.ISelection;
@@ -9,6 +15,8 @@ import org.eclipse.ui.IObjectActionDelegate;
 import org.eclipse.ui.IWorkbenchPart;
 import org.eclipse.jdt.core.*;
 
+import asttrav.Activator;
+
 public class TraversAST implements IObjectActionDelegate {
 
 	// This method converts a Selection to an object
@@ -46,23 +54,88 @@ public class TraversAST implements IObjectActionDelegate {
 	 * @see IActionDelegate#run(IAction)
 	 */
 	public void run(IAction action) {
-		Shell shell = new Shell();
 		// Get the IMethod that this action was invoked on
 		Object element = getSingleElement(selection);
-		IMethod method = getSelectedMethod(element);
-		// Get the info on the method
-		InfoGatherer ig = new InfoGatherer();
-		int x = ig.getNumberOfUserMethods();
-		int y = ig.getNumberOfMethodCalls(method);
-		MessageDialog.openInformation(
-				shell,
-				"ASTTrav Plug-in",
-				"The number of user defined methods = " + x + ". There were "
-						+ y + " method calls made from “"
-						+ method.getCompilationUnit().getElementName()
-						+ " which is the declaring class of "
-						+ method.getElementName()
-						+ ", the method you selected.");
+		final IMethod method = getSelectedMethod(element);
+		if (method == null)
+			return;
+		final Shell parent = shell != null ? shell : new Shell();
+
+		// ---
+		// Walking the workspace and parsing the declaring class can take a
+		// long time so we do it in a background job and only open the
+		// dialog, back on the UI thread, once the job has finished.
+		// ---
+		Job job = new Job("Traversing AST of " + method.getElementName()) {
+			protected IStatus run(IProgressMonitor monitor) {
+				SubMonitor progress = SubMonitor.convert(monitor, 2);
+				final int x;
+				final int y;
+				final int z;
+				final UnitMetrics unit;
+				try {
+					// Get the info on the method
+					InfoGatherer ig = new InfoGatherer();
+					// the live totals answer in O(1) once they are computed
+					IncrementalMetrics live = Activator.getDefault() == null ? null
+							: Activator.getDefault().getIncrementalMetrics();
+					if (live != null && live.isReady())
+						x = (int) live.getNumberOfUserMethods();
+					else
+						x = countUserMethods(ig, progress.newChild(1));
+					y = ig.getNumberOfMethodCalls(method, progress.newChild(1));
+					// answered from the same parse as y
+					z = ig.getNumberOfMethodCallsInMethod(method, null);
+					unit = ig.getDeclaringUnitMetrics(method, null);
+				} catch (OperationCanceledException ex) {
+					return Status.CANCEL_STATUS;
+				}
+				if (parent.isDisposed())
+					return Status.OK_STATUS;
+				parent.getDisplay().asyncExec(new Runnable() {
+					public void run() {
+						if (parent.isDisposed())
+							return;
+						MessageDialog.openInformation(
+								parent,
+								"ASTTrav Plug-in",
+								"The number of user defined methods = " + x
+										+ ". There were " + y
+										+ " method calls, "
+										+ unit.getNumberOfMethodReferences()
+										+ " method references and "
+										+ unit.getNumberOfObjectCreations()
+										+ " object creations made from “"
+										+ method.getCompilationUnit()
+												.getElementName()
+										+ " which is the declaring class of "
+										+ method.getElementName()
+										+ ", the method you selected. "
+										+ method.getElementName()
+										+ " itself makes " + z
+										+ " method calls.");
+					}
+				});
+				return Status.OK_STATUS;
+			}
+		};
+		job.setUser(true);
+		job.schedule();
+	}
+
+	// ---
+	// Asks the search index, which needs no Java model, and falls back to
+	// walking the model when the search fails
+	// ---
+	private static int countUserMethods(InfoGatherer ig,
+			IProgressMonitor monitor) {
+		SubMonitor progress = SubMonitor.convert(monitor, 2);
+		try {
+			return ig.getNumberOfUserMethodsFromIndex(progress.newChild(1));
+		} catch (JavaModelException ex) {
+			ex.printStackTrace();
+			return ig.getNumberOfUserMethodsInParallel(progress.newChild(1));
+		}
 	}
 
 	/**
@@ -0,0 +1,113 @@
+package asttrav.popup.actions;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+// ---
+// The metrics MyVisitor gathered for one compilation unit, and the values
+// of any further metrics computed with it (see AnalysisOptions). Its
+// method reference and object creation counts are among those values,
+// as METHOD_REFERENCE_COUNT and OBJECT_CREATION_COUNT. The unit
+// is identified by its handle identifier so the record can outlive the
+// AST and the Java model element it was computed from.
+// ---
+public class UnitMetrics {
+	private final String handle;
+	private final String name;
+	private final int numNodes;
+	private final int numCalls;
+	private final Map<Metric, Long> values;
+
+	public UnitMetrics(String handle, String name, int numNodes, int numCalls) {
+		this(handle, name, numNodes, numCalls, Collections
+				.<Metric, Long> emptyMap());
+	}
+
+	// ---
+	// The four MyVisitor counts; a count of -1 is not known
+	// ---
+	public UnitMetrics(String handle, String name, int numNodes,
+			int numCalls, int numReferences, int numCreations) {
+		this(handle, name, numNodes, numCalls, counts(numReferences,
+				numCreations));
+	}
+
+	public UnitMetrics(String handle, String name, int numNodes,
+			int numCalls, Map<Metric, Long> values) {
+		this.handle = handle;
+		this.name = name;
+		this.numNodes = numNodes;
+		this.numCalls = numCalls;
+		this.values = values.isEmpty() ? Collections.<Metric, Long> emptyMap()
+				: new EnumMap<>(values);
+	}
+
+	// the ICompilationUnit handle identifier, see JavaCore.create(String)
+	public String getHandle() {
+		return this.handle;
+	}
+
+	// the file name of the compilation unit, e.g. Foo.java
+	public String getName() {
+		return this.name;
+	}
+
+	public int getNumberOfNodes() {
+		return this.numNodes;
+	}
+
+	public int getNumberOfMethodCalls() {
+		return this.numCalls;
+	}
+
+	// the method and constructor references, -1 if not known
+	public int getNumberOfMethodReferences() {
+		return (int) getValue(Metric.METHOD_REFERENCE_COUNT);
+	}
+
+	// the class instance creations, -1 if not known
+	public int getNumberOfObjectCreations() {
+		return (int) getValue(Metric.OBJECT_CREATION_COUNT);
+	}
+
+	// ---
+	// The value of the metric for this unit, or -1 if it was not computed
+	// ---
+	public long getValue(Metric metric) {
+		if (metric == Metric.NODE_COUNT)
+			return this.numNodes;
+		if (metric == Metric.METHOD_CALL_COUNT)
+			return this.numCalls;
+		Long value = this.values.get(metric);
+		return value == null ? -1 : value.longValue();
+	}
+
+	// the values of the further metrics, by metric
+	public Map<Metric, Long> getValues() {
+		return Collections.unmodifiableMap(this.values);
+	}
+
+	private static Map<Metric, Long> counts(int numReferences,
+			int numCreations) {
+		Map<Metric, Long> values = new EnumMap<>(Metric.class);
+		if (numReferences >= 0)
+			values.put(Metric.METHOD_REFERENCE_COUNT,
+					Long.valueOf(numReferences));
+		if (numCreations >= 0)
+			values.put(Metric.OBJECT_CREATION_COUNT,
+					Long.valueOf(numCreations));
+		return values;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(this.name).append(" nodes=").append(this.numNodes)
+				.append(" calls=").append(this.numCalls);
+		for (Map.Entry<Metric, Long> value : this.values.entrySet())
+			sb.append(' ').append(value.getKey()).append('=')
+					.append(value.getValue());
+		return sb.toString();
+	}
+
+}// end UnitMetrics
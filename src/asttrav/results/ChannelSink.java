@@ -0,0 +1,194 @@
+package asttrav.results;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+import asttrav.popup.actions.Metric;
+
+// ---
+// Base of the sinks that write text records to a byte channel. Records
+// are encoded as UTF-8 straight into one reusable direct buffer, which is
+// only handed to the channel when it is full, so a record costs no more
+// than the string it is built from. All methods are synchronized so the
+// workers of a parallel analysis can share one sink.
+// ---
+public abstract class ChannelSink implements ResultSink {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final WritableByteChannel channel;
+	private final boolean closeChannel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+	private final StringBuilder line = new StringBuilder(256);
+	private boolean closed;
+
+	protected ChannelSink(WritableByteChannel channel, boolean closeChannel) {
+		this.channel = channel;
+		this.closeChannel = closeChannel;
+	}
+
+	// ---
+	// Opens a sink writing to the given file, replacing it. The format is
+	// "csv" or "jsonl"; when it is null it is taken from the extension of
+	// the file, JSON Lines unless the file ends in .csv.
+	// ---
+	public static ChannelSink open(Path file, String format) throws IOException {
+		return open(file, format, Collections.<Metric> emptySet());
+	}
+
+	// ---
+	// The same, for records that carry the values of the given metrics
+	// besides their counts; a CSV sink has a column for each
+	// ---
+	public static ChannelSink open(Path file, String format,
+			Collection<Metric> metrics) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		return create(channel, true, format == null ? formatOf(file) : format,
+				metrics);
+	}
+
+	// ---
+	// Returns a sink of the given format over an existing channel, for
+	// example Channels.newChannel(System.out)
+	// ---
+	public static ChannelSink create(WritableByteChannel channel,
+			boolean closeChannel, String format) throws IOException {
+		return create(channel, closeChannel, format,
+				Collections.<Metric> emptySet());
+	}
+
+	// ---
+	// The same, for records that carry the values of the given metrics
+	// ---
+	public static ChannelSink create(WritableByteChannel channel,
+			boolean closeChannel, String format, Collection<Metric> metrics)
+			throws IOException {
+		if ("csv".equalsIgnoreCase(format))
+			return new CsvSink(channel, closeChannel, metrics);
+		if (isJsonLines(format))
+			return new JsonLinesSink(channel, closeChannel);
+		if (closeChannel)
+			channel.close();
+		throw new IllegalArgumentException("Unknown format " + format);
+	}
+
+	// ---
+	// True if create and open accept the format
+	// ---
+	public static boolean isFormat(String format) {
+		return "csv".equalsIgnoreCase(format) || isJsonLines(format);
+	}
+
+	private static boolean isJsonLines(String format) {
+		return "jsonl".equalsIgnoreCase(format)
+				|| "json".equalsIgnoreCase(format);
+	}
+
+	// ---
+	// The name of the column or member that holds the value of the metric,
+	// its constant in lower case, e.g. cyclomatic_complexity
+	// ---
+	public static String columnName(Metric metric) {
+		return metric.name().toLowerCase(Locale.ROOT);
+	}
+
+	private static String formatOf(Path file) {
+		return file.getFileName().toString().toLowerCase().endsWith(".csv") ? "csv"
+				: "jsonl";
+	}
+
+	// ---
+	// Subclasses append one record, without the line separator. The values
+	// may be empty.
+	// ---
+	protected abstract void appendUnit(StringBuilder sb, String unit,
+			int numNodes, int numCalls, Map<Metric, Long> values);
+
+	protected abstract void appendMethod(StringBuilder sb, String unit,
+			String type, String method, int numCalls);
+
+	public void unit(String unit, int numNodes, int numCalls)
+			throws IOException {
+		unit(unit, numNodes, numCalls, Collections.<Metric, Long> emptyMap());
+	}
+
+	public synchronized void unit(String unit, int numNodes, int numCalls,
+			Map<Metric, Long> values) throws IOException {
+		line.setLength(0);
+		appendUnit(line, unit, numNodes, numCalls, values);
+		writeLine();
+	}
+
+	public synchronized void method(String unit, String type, String method,
+			int numCalls) throws IOException {
+		line.setLength(0);
+		appendMethod(line, unit, type, method, numCalls);
+		writeLine();
+	}
+
+	// ---
+	// Writes a line that is not a record, such as a CSV header
+	// ---
+	protected synchronized void writeRaw(String text) throws IOException {
+		line.setLength(0);
+		line.append(text);
+		writeLine();
+	}
+
+	public synchronized void flush() throws IOException {
+		drain();
+	}
+
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			encoder.encode(CharBuffer.allocate(0), buffer, true);
+			encoder.flush(buffer);
+			drain();
+		} finally {
+			if (closeChannel)
+				channel.close();
+		}
+	}
+
+	// encodes the line plus a newline into the buffer, draining it as needed
+	private void writeLine() throws IOException {
+		if (closed)
+			throw new IOException("Sink is closed");
+		line.append('\n');
+		CharBuffer in = CharBuffer.wrap(line);
+		while (true) {
+			CoderResult result = encoder.encode(in, buffer, false);
+			if (result.isOverflow()) {
+				drain();
+				continue;
+			}
+			if (result.isError())
+				result.throwException();
+			return;
+		}
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+}// end ChannelSink
@@ -0,0 +1,93 @@
+package asttrav.results;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import asttrav.popup.actions.Metric;
+
+// ---
+// Writes RFC 4180 CSV with one header line. Unit and method records share
+// the columns kind,unit,type,method,nodes,calls, followed by one column
+// per further metric the sink was made for, named by
+// ChannelSink.columnName; the columns a record does not have are left
+// empty.
+// ---
+public class CsvSink extends ChannelSink {
+	// the metrics with a column, in column order
+	private final Metric[] metrics;
+
+	public CsvSink(WritableByteChannel channel, boolean closeChannel)
+			throws IOException {
+		this(channel, closeChannel, Collections.<Metric> emptySet());
+	}
+
+	public CsvSink(WritableByteChannel channel, boolean closeChannel,
+			Collection<Metric> metrics) throws IOException {
+		super(channel, closeChannel);
+		this.metrics = metrics.toArray(new Metric[metrics.size()]);
+		StringBuilder header = new StringBuilder(
+				"kind,unit,type,method,nodes,calls");
+		for (Metric metric : this.metrics)
+			header.append(',').append(columnName(metric));
+		writeRaw(header.toString());
+	}
+
+	protected void appendUnit(StringBuilder sb, String unit, int numNodes,
+			int numCalls, Map<Metric, Long> values) {
+		sb.append("unit,");
+		field(sb, unit);
+		sb.append(",,,").append(numNodes).append(',').append(numCalls);
+		for (Metric metric : this.metrics) {
+			sb.append(',');
+			Long value = values.get(metric);
+			if (value != null)
+				sb.append(value.longValue());
+		}
+	}
+
+	protected void appendMethod(StringBuilder sb, String unit, String type,
+			String method, int numCalls) {
+		sb.append("method,");
+		field(sb, unit);
+		sb.append(',');
+		field(sb, type);
+		sb.append(',');
+		field(sb, method);
+		sb.append(',');
+		sb.append(',');
+		if (numCalls >= 0)
+			sb.append(numCalls);
+		for (int i = 0; i < this.metrics.length; i++)
+			sb.append(',');
+	}
+
+	// ---
+	// Appends a field, quoted when it holds a separator, quote or newline.
+	// Also used by the other CSV reports.
+	// ---
+	public static void field(StringBuilder sb, String value) {
+		if (value == null)
+			return;
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++) {
+			char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote) {
+			sb.append(value);
+			return;
+		}
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"')
+				sb.append('"');
+			sb.append(c);
+		}
+		sb.append('"');
+	}
+
+}// end CsvSink
@@ -0,0 +1,191 @@
+package asttrav.results;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import asttrav.popup.actions.Metric;
+
+// ---
+// Reads back what a JsonLinesSink wrote and replays it into another sink,
+// record by record, so a file of results can be merged into a larger one
+// without holding it in memory. Only the flat objects JsonLinesSink writes
+// are understood: string, number and null values, no nesting. Blank lines
+// are skipped; anything else that does not parse is an IOException naming
+// the file and line.
+// ---
+public final class JsonLinesReader {
+
+	private JsonLinesReader() {
+	}
+
+	// ---
+	// Replays every record of the file into the sink and returns the
+	// number of unit records
+	// ---
+	public static long replay(Path file, ResultSink sink) throws IOException {
+		long units = 0;
+		int lineNumber = 0;
+		try (BufferedReader in = Files.newBufferedReader(file,
+				StandardCharsets.UTF_8)) {
+			String line;
+			Map<String, String> record = new HashMap<>();
+			Map<Metric, Long> values = new EnumMap<>(Metric.class);
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				if (line.trim().isEmpty())
+					continue;
+				record.clear();
+				values.clear();
+				int nodes;
+				int calls;
+				try {
+					parse(line, record);
+					nodes = intValue(record, "nodes");
+					calls = intValue(record, "calls");
+					for (Metric metric : Metric.values()) {
+						String value = record.get(ChannelSink.columnName(metric));
+						if (value != null)
+							values.put(metric, Long.valueOf(value));
+					}
+				} catch (IllegalArgumentException ex) {
+					throw new IOException(file + ":" + lineNumber + ": "
+							+ ex.getMessage());
+				}
+				String kind = record.get("kind");
+				if ("unit".equals(kind)) {
+					if (values.isEmpty())
+						sink.unit(record.get("unit"), nodes, calls);
+					else
+						sink.unit(record.get("unit"), nodes, calls, values);
+					units++;
+				} else if ("method".equals(kind)) {
+					sink.method(record.get("unit"), record.get("type"),
+							record.get("method"), calls);
+				} else {
+					throw new IOException(file + ":" + lineNumber
+							+ ": unknown record kind " + kind);
+				}
+			}
+		}
+		return units;
+	}// end replay(Path file, ResultSink sink)
+
+	private static int intValue(Map<String, String> record, String name) {
+		String value = record.get(name);
+		return value == null ? -1 : Integer.parseInt(value);
+	}
+
+	// ---
+	// Puts the members of a flat JSON object into the map, numbers as
+	// their text and null as a null value
+	// ---
+	static void parse(String line, Map<String, String> record) {
+		int[] pos = { skipSpace(line, 0) };
+		expect(line, pos, '{');
+		if (peek(line, pos) == '}')
+			return;
+		while (true) {
+			String name = string(line, pos);
+			expect(line, pos, ':');
+			String value;
+			char c = peek(line, pos);
+			if (c == '"') {
+				value = string(line, pos);
+			} else {
+				int start = pos[0];
+				while (pos[0] < line.length()
+						&& ",} \t".indexOf(line.charAt(pos[0])) < 0)
+					pos[0]++;
+				value = line.substring(start, pos[0]);
+				if ("null".equals(value))
+					value = null;
+				pos[0] = skipSpace(line, pos[0]);
+			}
+			record.put(name, value);
+			c = peek(line, pos);
+			pos[0]++;
+			if (c == '}')
+				return;
+			if (c != ',')
+				throw new IllegalArgumentException("expected , or } at "
+						+ (pos[0] - 1));
+			pos[0] = skipSpace(line, pos[0]);
+		}
+	}// end parse(String line, Map<String, String> record)
+
+	private static String string(String line, int[] pos) {
+		// not expect, which would skip blanks inside the string
+		if (peek(line, pos) != '"')
+			throw new IllegalArgumentException("expected \" at " + pos[0]);
+		StringBuilder sb = new StringBuilder();
+		int i = pos[0] + 1;
+		while (true) {
+			if (i >= line.length())
+				throw new IllegalArgumentException("unterminated string");
+			char c = line.charAt(i++);
+			if (c == '"')
+				break;
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			if (i >= line.length())
+				throw new IllegalArgumentException("unterminated string");
+			c = line.charAt(i++);
+			switch (c) {
+			case 'n':
+				sb.append('\n');
+				break;
+			case 'r':
+				sb.append('\r');
+				break;
+			case 't':
+				sb.append('\t');
+				break;
+			case 'b':
+				sb.append('\b');
+				break;
+			case 'f':
+				sb.append('\f');
+				break;
+			case 'u':
+				if (i + 4 > line.length())
+					throw new IllegalArgumentException("bad escape at " + i);
+				sb.append((char) Integer.parseInt(line.substring(i, i + 4),
+						16));
+				i += 4;
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+		pos[0] = skipSpace(line, i);
+		return sb.toString();
+	}// end string(String line, int[] pos)
+
+	private static void expect(String line, int[] pos, char c) {
+		if (peek(line, pos) != c)
+			throw new IllegalArgumentException("expected " + c + " at "
+					+ pos[0]);
+		pos[0] = skipSpace(line, pos[0] + 1);
+	}
+
+	private static char peek(String line, int[] pos) {
+		if (pos[0] >= line.length())
+			throw new IllegalArgumentException("unexpected end of line");
+		return line.charAt(pos[0]);
+	}
+
+	private static int skipSpace(String line, int i) {
+		while (i < line.length() && Character.isWhitespace(line.charAt(i)))
+			i++;
+		return i;
+	}
+
+}// end JsonLinesReader
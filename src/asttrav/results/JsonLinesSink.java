@@ -0,0 +1,85 @@
+package asttrav.results;
+
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+
+import asttrav.popup.actions.Metric;
+
+// ---
+// Writes one JSON object per line:
+//
+//   {"kind":"unit","unit":"...","nodes":123,"calls":4}
+//   {"kind":"method","unit":"...","type":"a.B","method":"m","calls":2}
+//
+// "calls" is left out of a method record when it was not computed. A
+// unit record has a member for the value of every further metric it
+// carries, named by ChannelSink.columnName, e.g. "nesting_depth":3.
+// ---
+public class JsonLinesSink extends ChannelSink {
+
+	public JsonLinesSink(WritableByteChannel channel, boolean closeChannel) {
+		super(channel, closeChannel);
+	}
+
+	protected void appendUnit(StringBuilder sb, String unit, int numNodes,
+			int numCalls, Map<Metric, Long> values) {
+		sb.append("{\"kind\":\"unit\",\"unit\":");
+		string(sb, unit);
+		sb.append(",\"nodes\":").append(numNodes);
+		sb.append(",\"calls\":").append(numCalls);
+		for (Map.Entry<Metric, Long> value : values.entrySet()) {
+			sb.append(",\"").append(columnName(value.getKey())).append("\":");
+			sb.append(value.getValue().longValue());
+		}
+		sb.append('}');
+	}
+
+	protected void appendMethod(StringBuilder sb, String unit, String type,
+			String method, int numCalls) {
+		sb.append("{\"kind\":\"method\",\"unit\":");
+		string(sb, unit);
+		sb.append(",\"type\":");
+		string(sb, type);
+		sb.append(",\"method\":");
+		string(sb, method);
+		if (numCalls >= 0)
+			sb.append(",\"calls\":").append(numCalls);
+		sb.append('}');
+	}
+
+	// appends a JSON string literal
+	private static void string(StringBuilder sb, String value) {
+		if (value == null) {
+			sb.append("null");
+			return;
+		}
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20)
+					sb.append(String.format("\\u%04x", (int) c));
+				else
+					sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+
+}// end JsonLinesSink
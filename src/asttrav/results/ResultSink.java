@@ -0,0 +1,42 @@
+package asttrav.results;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+import asttrav.popup.actions.Metric;
+
+// ---
+// Receives analysis results as they are produced, one record at a time,
+// so nothing has to be collected in memory before it is written out.
+// Implementations must accept calls from several threads.
+// ---
+public interface ResultSink extends Closeable {
+
+	// ---
+	// The counts of one compilation unit. The unit is a file path in
+	// headless runs and a handle identifier in the workspace.
+	// ---
+	void unit(String unit, int numNodes, int numCalls) throws IOException;
+
+	// ---
+	// The counts of one compilation unit with the values of the further
+	// metrics computed for it, see Main -metrics. A sink that has no place
+	// for a metric leaves its value out.
+	// ---
+	void unit(String unit, int numNodes, int numCalls,
+			Map<Metric, Long> values) throws IOException;
+
+	// ---
+	// One user defined method. numCalls is the number of calls made from
+	// its body, or -1 when it was not computed.
+	// ---
+	void method(String unit, String type, String method, int numCalls)
+			throws IOException;
+
+	// ---
+	// Writes out anything still buffered
+	// ---
+	void flush() throws IOException;
+
+}// end ResultSink
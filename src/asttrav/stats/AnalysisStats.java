@@ -0,0 +1,272 @@
+package asttrav.stats;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// ---
+// Timers and counters for the stages of an analysis: the model walk, the
+// source read, the parse, binding resolution and the visit (see Stage),
+// together with the files and nodes done, the parse latencies and the
+// bytes allocated per file. There is one instance per JVM.
+//
+// The probes are static and cheap to leave in the hot paths: while the
+// stats are off, start() reads a volatile flag and returns 0, and stop()
+// and fileDone() return at once when handed that 0. While they are on,
+// every probe is a System.nanoTime and a LongAdder add. A stage is timed
+// like this:
+//
+//   long t = AnalysisStats.start();
+//   ... the work ...
+//   AnalysisStats.stop(Stage.PARSE, t);
+//
+// The stats are turned on with -Dasttrav.stats=true or through JMX, and
+// -Dasttrav.stats.dump=<file> has them written to the file when the
+// plug-in stops.
+// ---
+public final class AnalysisStats implements AnalysisStatsMXBean {
+	public static final String OBJECT_NAME = "asttrav:type=AnalysisStats"; //$NON-NLS-1$
+	public static final String ENABLED_PROPERTY = "asttrav.stats"; //$NON-NLS-1$
+	public static final String DUMP_PROPERTY = "asttrav.stats.dump"; //$NON-NLS-1$
+
+	// before INSTANCE, whose constructor reads it
+	private static final Stage[] STAGES = Stage.values();
+	private static final AnalysisStats INSTANCE = new AnalysisStats();
+
+	private volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+
+	private final LongAdder[] stageNanos = new LongAdder[STAGES.length];
+	private final LongAdder[] stageCounts = new LongAdder[STAGES.length];
+	private final LatencyHistogram parseLatency = new LatencyHistogram();
+	private final LongAdder files = new LongAdder();
+	private final LongAdder nodes = new LongAdder();
+	private final LongAdder allocated = new LongAdder();
+	private final LongAdder allocationSamples = new LongAdder();
+	// the wall clock window the files were done in
+	private final AtomicLong firstNanos = new AtomicLong();
+	private volatile long lastNanos;
+
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final boolean allocationSupported;
+
+	private AnalysisStats() {
+		for (int i = 0; i < STAGES.length; i++) {
+			stageNanos[i] = new LongAdder();
+			stageCounts[i] = new LongAdder();
+		}
+		allocationSupported = threadAllocatedBytes() >= 0;
+	}
+
+	public static AnalysisStats get() {
+		return INSTANCE;
+	}
+
+	// ---
+	// Returns the time a stage starts at, 0 when the stats are off
+	// ---
+	public static long start() {
+		if (!INSTANCE.enabled)
+			return 0;
+		long now = System.nanoTime();
+		return now == 0 ? 1 : now;
+	}
+
+	// ---
+	// Adds the time since start to the stage
+	// ---
+	public static void stop(Stage stage, long start) {
+		if (start == 0)
+			return;
+		INSTANCE.record(stage, System.nanoTime() - start);
+	}
+
+	// ---
+	// Returns what the current thread has allocated so far, to be handed
+	// to fileDone; 0 when the stats are off
+	// ---
+	public static long allocationMark() {
+		if (!INSTANCE.enabled)
+			return 0;
+		long bytes = INSTANCE.threadAllocatedBytes();
+		return bytes < 0 ? 1 : bytes + 1;
+	}
+
+	// ---
+	// Counts a file analysed on the current thread with the given number
+	// of nodes; mark is the allocationMark taken when the file was started
+	// ---
+	public static void fileDone(int numNodes, long mark) {
+		if (mark == 0)
+			return;
+		INSTANCE.countFile(numNodes, mark);
+	}
+
+	private void record(Stage stage, long nanos) {
+		stageNanos[stage.ordinal()].add(nanos);
+		stageCounts[stage.ordinal()].increment();
+		if (stage == Stage.PARSE)
+			parseLatency.record(nanos);
+	}
+
+	private void countFile(int numNodes, long mark) {
+		long now = System.nanoTime();
+		firstNanos.compareAndSet(0, now);
+		lastNanos = now;
+		files.increment();
+		nodes.add(numNodes);
+		if (allocationSupported && mark > 1) {
+			allocated.add(threadAllocatedBytes() - (mark - 1));
+			allocationSamples.increment();
+		}
+	}
+
+	// the bytes the current thread allocated, -1 if the JVM cannot tell
+	private long threadAllocatedBytes() {
+		try {
+			if (threads instanceof com.sun.management.ThreadMXBean)
+				return ((com.sun.management.ThreadMXBean) threads)
+						.getThreadAllocatedBytes(Thread.currentThread().getId());
+		} catch (LinkageError | UnsupportedOperationException ex) {
+			// not a HotSpot JVM, or com.sun.management is not visible
+		}
+		return -1;
+	}
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public long getFiles() {
+		return files.sum();
+	}
+
+	public long getNodes() {
+		return nodes.sum();
+	}
+
+	public double getFilesPerSecond() {
+		return perSecond(files.sum());
+	}
+
+	public double getNodesPerSecond() {
+		return perSecond(nodes.sum());
+	}
+
+	public double getParseLatencyP50() {
+		return millis(parseLatency.getPercentile(0.5));
+	}
+
+	public double getParseLatencyP90() {
+		return millis(parseLatency.getPercentile(0.9));
+	}
+
+	public double getParseLatencyP99() {
+		return millis(parseLatency.getPercentile(0.99));
+	}
+
+	public long getAllocatedBytesPerFile() {
+		long samples = allocationSamples.sum();
+		if (!allocationSupported)
+			return -1;
+		return samples == 0 ? 0 : allocated.sum() / samples;
+	}
+
+	public double getModelWalkMillis() {
+		return getMillis(Stage.MODEL_WALK);
+	}
+
+	public double getSourceReadMillis() {
+		return getMillis(Stage.SOURCE_READ);
+	}
+
+	public double getParseMillis() {
+		return getMillis(Stage.PARSE);
+	}
+
+	public double getResolveMillis() {
+		return getMillis(Stage.RESOLVE);
+	}
+
+	public double getVisitMillis() {
+		return getMillis(Stage.VISIT);
+	}
+
+	public double getMillis(Stage stage) {
+		return millis(stageNanos[stage.ordinal()].sum());
+	}
+
+	// how often the stage was timed
+	public long getCount(Stage stage) {
+		return stageCounts[stage.ordinal()].sum();
+	}
+
+	public void reset() {
+		for (int i = 0; i < STAGES.length; i++) {
+			stageNanos[i].reset();
+			stageCounts[i].reset();
+		}
+		parseLatency.reset();
+		files.reset();
+		nodes.reset();
+		allocated.reset();
+		allocationSamples.reset();
+		firstNanos.set(0);
+		lastNanos = 0;
+	}
+
+	public void dump(String file) throws IOException {
+		dump(Paths.get(file));
+	}
+
+	// ---
+	// Writes the numbers as name=value lines, one per line
+	// ---
+	public void dump(Path file) throws IOException {
+		try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			line(out, "files", getFiles()); //$NON-NLS-1$
+			line(out, "nodes", getNodes()); //$NON-NLS-1$
+			line(out, "filesPerSecond", getFilesPerSecond()); //$NON-NLS-1$
+			line(out, "nodesPerSecond", getNodesPerSecond()); //$NON-NLS-1$
+			line(out, "parseLatencyP50Millis", getParseLatencyP50()); //$NON-NLS-1$
+			line(out, "parseLatencyP90Millis", getParseLatencyP90()); //$NON-NLS-1$
+			line(out, "parseLatencyP99Millis", getParseLatencyP99()); //$NON-NLS-1$
+			line(out, "allocatedBytesPerFile", getAllocatedBytesPerFile()); //$NON-NLS-1$
+			for (Stage stage : STAGES) {
+				line(out, stage.name() + ".millis", getMillis(stage)); //$NON-NLS-1$
+				line(out, stage.name() + ".count", getCount(stage)); //$NON-NLS-1$
+			}
+		}
+	}// end dump(Path file)
+
+	private static void line(Writer out, String name, Object value)
+			throws IOException {
+		out.write(name);
+		out.write('=');
+		out.write(String.valueOf(value));
+		out.write('\n');
+	}
+
+	private double perSecond(long count) {
+		long first = firstNanos.get();
+		long elapsed = lastNanos - first;
+		if (first == 0 || elapsed <= 0)
+			return 0;
+		return count * 1e9 / elapsed;
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+
+}// end AnalysisStats
@@ -0,0 +1,47 @@
+package asttrav.stats;
+
+import java.io.IOException;
+
+// ---
+// The management interface of AnalysisStats, registered by the Activator
+// under AnalysisStats.OBJECT_NAME. Times are in milliseconds.
+// ---
+public interface AnalysisStatsMXBean {
+
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	long getFiles();
+
+	long getNodes();
+
+	double getFilesPerSecond();
+
+	double getNodesPerSecond();
+
+	double getParseLatencyP50();
+
+	double getParseLatencyP90();
+
+	double getParseLatencyP99();
+
+	// -1 when the JVM cannot measure allocation per thread
+	long getAllocatedBytesPerFile();
+
+	double getModelWalkMillis();
+
+	double getSourceReadMillis();
+
+	double getParseMillis();
+
+	double getResolveMillis();
+
+	double getVisitMillis();
+
+	void reset();
+
+	// writes the current numbers to the given file
+	void dump(String file) throws IOException;
+
+}// end AnalysisStatsMXBean
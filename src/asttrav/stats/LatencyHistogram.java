@@ -0,0 +1,69 @@
+package asttrav.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// ---
+// A lock free histogram of durations in nanoseconds. The buckets grow
+// exponentially, four to every power of two, so a percentile is off by at
+// most a quarter of its value whatever its magnitude, and recording is one
+// array increment with no allocation.
+// ---
+public final class LatencyHistogram {
+	// the sub buckets per power of two, as a number of bits
+	private static final int SUB_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int NUM_BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+	public void record(long nanos) {
+		counts.incrementAndGet(bucket(Math.max(0, nanos)));
+	}
+
+	// ---
+	// Returns the upper bound of the bucket the given quantile (0 to 1)
+	// falls in, in nanoseconds, or 0 if nothing was recorded
+	// ---
+	public long getPercentile(double quantile) {
+		long total = 0;
+		long[] snapshot = new long[NUM_BUCKETS];
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0)
+			return 0;
+		long rank = (long) Math.ceil(quantile * total);
+		long seen = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= Math.max(1, rank))
+				return upperBound(i);
+		}
+		return upperBound(NUM_BUCKETS - 1);
+	}// end getPercentile(double quantile)
+
+	public void reset() {
+		for (int i = 0; i < NUM_BUCKETS; i++)
+			counts.set(i, 0);
+	}
+
+	// values below SUB_BUCKETS get a bucket each, above that the top
+	// SUB_BITS + 1 bits pick it
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		int sub = (int) (value >>> exponent) & (SUB_BUCKETS - 1);
+		return (exponent + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int exponent = bucket / SUB_BUCKETS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << exponent) - 1;
+	}
+
+}// end LatencyHistogram
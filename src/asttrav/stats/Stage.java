@@ -0,0 +1,18 @@
+package asttrav.stats;
+
+// ---
+// The stages of an analysis that AnalysisStats times separately
+// ---
+public enum Stage {
+	// walking the Java model: projects, fragments, types and methods
+	MODEL_WALK,
+	// reading the contents of a compilation unit
+	SOURCE_READ,
+	// building an AST; with bindings on, the compiler's resolution of the
+	// whole unit happens in here too
+	PARSE,
+	// the resolve*Binding calls a visitor makes on an AST
+	RESOLVE,
+	// the traversal of an AST by a visitor
+	VISIT;
+}// end Stage
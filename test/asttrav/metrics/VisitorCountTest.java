@@ -0,0 +1,113 @@
+package asttrav.metrics;
+
+import java.util.Arrays;
+
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+
+import asttrav.popup.actions.AnalysisOptions;
+import asttrav.popup.actions.CountingVisitor;
+import asttrav.popup.actions.IterativeWalker;
+import asttrav.popup.actions.Metric;
+
+// ---
+// Checks that the VisitorCount plug-ins of a FusedVisitor give the same
+// node and call counts as CountingVisitor, on sources full of the node
+// types whose children MyVisitor prunes. Needs the jdt.core jar and its
+// dependencies plus the plug-in classes, see README.md. Exits with 0 when
+// everything holds and 1 otherwise.
+// ---
+public final class VisitorCountTest {
+	private static final String[] SOURCES = {
+			// literals, comments and modifiers, all pruned
+			"package p;\n"
+					+ "import java.util.List;\n"
+					+ "/** A {@link List} of <b>things</b>. */\n"
+					+ "public class A {\n"
+					+ "  // a line comment\n"
+					+ "  private static final String S = \"s\" + 'c' + 1 + 2L;\n"
+					+ "  /* a block comment */\n"
+					+ "  boolean b = true || null == null;\n"
+					+ "  void m(int i) {\n"
+					+ "    for (;;) { if (i > 0) break; else continue; }\n"
+					+ "  }\n"
+					+ "}\n",
+			// calls of every kind, nested and in initialisers
+			"package p;\n"
+					+ "class B extends A {\n"
+					+ "  int x = f(f(1));\n"
+					+ "  B() { this(0); }\n"
+					+ "  B(int i) { super(); super.m(f(i)); }\n"
+					+ "  static int f(int i) { return i; }\n"
+					+ "  void m(int i) { new B().m(f(f(f(i)))); }\n"
+					+ "}\n",
+			// Java 8: lambdas and method references, whose children are
+			// pruned, and anonymous classes
+			"package p;\n"
+					+ "import java.util.function.*;\n"
+					+ "class C {\n"
+					+ "  Supplier<C> s = C::new;\n"
+					+ "  Function<String, Integer> l = String::length;\n"
+					+ "  Runnable r = () -> System.out.println(s.get());\n"
+					+ "  Runnable a = new Runnable() {\n"
+					+ "    public void run() { r.run(); a.run(); }\n"
+					+ "  };\n"
+					+ "  @SuppressWarnings(\"unchecked\") void m() {\n"
+					+ "    char[] cs = {'a', 'b'};\n"
+					+ "    ;\n"
+					+ "  }\n"
+					+ "}\n" };
+
+	private static int failures;
+
+	private VisitorCountTest() {
+	}
+
+	public static void main(String[] args) {
+		AnalysisOptions options = AnalysisOptions.forVisitorCounts();
+		MetricRegistry registry = MetricRegistry.standard();
+		for (int i = 0; i < SOURCES.length; i++) {
+			ASTParser parser = options.newParser();
+			parser.setCompilerOptions(options.getCompilerOptions());
+			parser.setSource(SOURCES[i].toCharArray());
+			CompilationUnit ast = (CompilationUnit) parser.createAST(null);
+
+			CountingVisitor counting = new CountingVisitor();
+			ast.accept(counting);
+			FusedVisitor accepted = registry.newVisitor(Arrays.asList(
+					Metric.NODE_COUNT, Metric.METHOD_CALL_COUNT));
+			ast.accept(accepted);
+			FusedVisitor walked = registry.newVisitor(Arrays.asList(
+					Metric.NODE_COUNT, Metric.METHOD_CALL_COUNT));
+			new IterativeWalker().walk(ast, walked);
+
+			compare(i, "accept", counting, accepted);
+			compare(i, "walker", counting, walked);
+		}
+		if (failures > 0) {
+			System.err.println(failures + " checks failed");
+			System.exit(1);
+		}
+		System.err.println("VisitorCount test passed");
+	}// end main(String[] args)
+
+	private static void compare(int source, String how,
+			CountingVisitor expected, FusedVisitor actual) {
+		check(actual.getValue(Metric.NODE_COUNT) == expected
+				.getNumberOfNodes(), "source " + source + " by " + how
+				+ ": " + actual.getValue(Metric.NODE_COUNT) + " nodes, not "
+				+ expected.getNumberOfNodes());
+		check(actual.getValue(Metric.METHOD_CALL_COUNT) == expected
+				.getNumberOfMethodCalls(), "source " + source + " by " + how
+				+ ": " + actual.getValue(Metric.METHOD_CALL_COUNT)
+				+ " calls, not " + expected.getNumberOfMethodCalls());
+	}
+
+	private static void check(boolean condition, String what) {
+		if (!condition) {
+			System.err.println("FAILED: " + what);
+			failures++;
+		}
+	}
+
+}// end VisitorCountTest
@@ -0,0 +1,113 @@
+package asttrav.popup.actions;
+
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+
+// ---
+// Checks that walking a very deeply nested tree with an IterativeWalker
+// gives the same counts as accept with MyVisitor: nodes, calls, method
+// references, object creations and the calls of each method declaration.
+// The source nests calls, object creations and parentheses tens of
+// thousands deep, in a method and in a method of an anonymous class. The
+// parse and the accept run on a DeepStack thread, the walks on the main
+// thread with its default stack. Needs the jdt.core jar and its
+// dependencies plus the plug-in classes, see README.md. Exits with 0 when
+// everything holds and 1 otherwise.
+// ---
+public final class DeepTreeTest {
+	private static final int DEPTH = 20000;
+
+	private static int failures;
+
+	private DeepTreeTest() {
+	}
+
+	public static void main(String[] args) {
+		final String source = "package p;\n"
+				+ "class D {\n"
+				+ "  Object m() { return " + nest(DEPTH, "D::m") + "; }\n"
+				+ "  Runnable r = new Runnable() {\n"
+				+ "    public void run() { " + nest(DEPTH / 2, "super.toString()")
+				+ "; }\n"
+				+ "  };\n"
+				+ "}\n";
+		final AnalysisOptions options = AnalysisOptions.forVisitorCounts();
+		final CompilationUnit ast = DeepStack.call(() -> {
+			ASTParser parser = options.newParser();
+			parser.setCompilerOptions(options.getCompilerOptions());
+			parser.setSource(source.toCharArray());
+			return (CompilationUnit) parser.createAST(null);
+		});
+
+		final MyVisitor accepted = new MyVisitor();
+		DeepStack.run(() -> ast.accept(accepted));
+		CountingVisitor counting = new CountingVisitor();
+		new IterativeWalker().walk(ast, counting);
+		MethodCountingVisitor walked = new MethodCountingVisitor();
+		new IterativeWalker().walk(ast, walked);
+
+		check(accepted.getNumberOfNodes() > DEPTH, "only "
+				+ accepted.getNumberOfNodes() + " nodes, the source did not"
+				+ " parse as nested");
+		compare("CountingVisitor", accepted, counting.getNumberOfNodes(),
+				counting.getNumberOfMethodCalls(),
+				counting.getNumberOfMethodReferences(),
+				counting.getNumberOfObjectCreations());
+		compare("MethodCountingVisitor", accepted, walked.getNumberOfNodes(),
+				walked.getNumberOfMethodCalls(),
+				walked.getNumberOfMethodReferences(),
+				walked.getNumberOfObjectCreations());
+		IntIntMap expected = accepted.getMethodCallCounts();
+		IntIntMap actual = walked.getMethodCallCounts();
+		check(actual.size() == expected.size(), actual.size()
+				+ " methods with calls, not " + expected.size());
+		int[] keys = expected.keys();
+		for (int i = 0; i < keys.length; i++)
+			check(actual.get(keys[i], 0) == expected.get(keys[i], 0),
+					"the method at " + keys[i] + " makes "
+							+ actual.get(keys[i], 0) + " calls, not "
+							+ expected.get(keys[i], 0));
+
+		if (failures > 0) {
+			System.err.println(failures + " checks failed");
+			System.exit(1);
+		}
+		System.err.println("DeepTree test passed");
+	}// end main(String[] args)
+
+	// ---
+	// An expression nested depth levels deep around the innermost one,
+	// taking turns with a call, an object creation and parentheses
+	// ---
+	private static String nest(int depth, String innermost) {
+		StringBuilder source = new StringBuilder(depth * 8);
+		for (int i = 0; i < depth; i++)
+			source.append(i % 3 == 0 ? "f(" : i % 3 == 1 ? "new D(" : "(");
+		source.append(innermost);
+		for (int i = 0; i < depth; i++)
+			source.append(')');
+		return source.toString();
+	}
+
+	private static void compare(String how, MyVisitor expected, int nodes,
+			int calls, int references, int creations) {
+		check(nodes == expected.getNumberOfNodes(), how + ": " + nodes
+				+ " nodes, not " + expected.getNumberOfNodes());
+		check(calls == expected.getNumberOfMethodCalls(), how + ": " + calls
+				+ " calls, not " + expected.getNumberOfMethodCalls());
+		check(references == expected.getNumberOfMethodReferences(), how
+				+ ": " + references + " method references, not "
+				+ expected.getNumberOfMethodReferences());
+		check(creations == expected.getNumberOfObjectCreations(), how + ": "
+				+ creations + " object creations, not "
+				+ expected.getNumberOfObjectCreations());
+	}
+
+	private static void check(boolean condition, String what) {
+		if (!condition) {
+			System.err.println("FAILED: " + what);
+			failures++;
+		}
+	}
+
+}// end DeepTreeTest
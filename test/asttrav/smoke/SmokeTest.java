@@ -0,0 +1,75 @@
+package asttrav.smoke;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import asttrav.headless.Main;
+import asttrav.stats.AnalysisStats;
+
+// ---
+// Runs one headless analysis end to end, with the stats on, and checks
+// that it succeeds and counts what it should. It needs no workbench, only
+// the jdt.core jar and its dependencies plus the plug-in classes, see
+// README.md. Exits with 0 when everything holds and 1 otherwise.
+// ---
+public final class SmokeTest {
+	// two method invocations; MyVisitor counts both
+	private static final String SOURCE = "package p;\n"
+			+ "class A {\n"
+			+ "  void m() {\n"
+			+ "    m();\n"
+			+ "    new A().m();\n"
+			+ "  }\n"
+			+ "}\n";
+
+	private static int failures;
+
+	private SmokeTest() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		// before AnalysisStats is first touched, it reads the flag once
+		System.setProperty(AnalysisStats.ENABLED_PROPERTY, "true");
+		Path dir = Files.createTempDirectory("asttrav-smoke");
+		Path source = dir.resolve("src/p/A.java");
+		Files.createDirectories(source.getParent());
+		Files.write(source, SOURCE.getBytes(StandardCharsets.UTF_8));
+		Path out = dir.resolve("out.jsonl");
+		Path dump = dir.resolve("stats.txt");
+		System.setProperty(AnalysisStats.DUMP_PROPERTY, dump.toString());
+
+		int code = Main.run(new String[] { "-source",
+				dir.resolve("src").toString(), "-out", out.toString(),
+				"-threads", "1" });
+		check(code == Main.EXIT_OK, "exit code " + code);
+		List<String> lines = Files.readAllLines(out, StandardCharsets.UTF_8);
+		check(lines.size() == 2, "a unit and a method record, got " + lines);
+		String line = lines.isEmpty() ? "" : lines.get(0);
+		check(line.contains("\"calls\":2"), "two calls in " + line);
+		check(!line.contains("\"nodes\":0,"), "nodes counted in " + line);
+		String method = lines.size() < 2 ? "" : lines.get(1);
+		check(method.contains("\"type\":\"p.A\"")
+				&& method.contains("\"method\":\"m\"")
+				&& method.contains("\"calls\":2"), "two calls from p.A.m in "
+				+ method);
+		check(AnalysisStats.get().getFiles() == 1, "stats saw "
+				+ AnalysisStats.get().getFiles() + " files");
+		check(Files.exists(dump), "stats dumped to " + dump);
+		if (failures > 0) {
+			System.err.println(failures + " checks failed");
+			System.exit(1);
+		}
+		System.err.println("Smoke test passed in " + dir);
+	}// end main(String[] args)
+
+	private static void check(boolean condition, String what) {
+		if (!condition) {
+			System.err.println("FAILED: " + what);
+			failures++;
+		}
+	}
+
+}// end SmokeTest